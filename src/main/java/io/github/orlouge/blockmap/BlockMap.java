@@ -1,18 +1,61 @@
 package io.github.orlouge.blockmap;
 
+import net.minecraft.block.Block;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.util.registry.Registry;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 public class BlockMap {
+    private static final int MAX_SUB_MAPS = 8;
     public final List<Cell> cells;
     public final int width, height;
+    public final boolean dominant;
+    private final Map<String, BlockMapSearchIndex> searchIndices = new HashMap<>();
+    // filters come from the inventory, so only the sub-maps used last are kept
+    private final Map<String, BlockMap> subMaps = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BlockMap> eldest) {
+            return size() > MAX_SUB_MAPS;
+        }
+    };
+    // global maps only: built with the map, on the thread building it, and shared with the sub-maps
+    private final BlockMapGradient gradient;
+    // sub-maps only: the map they were taken from, the index there of each of their cells, the index here of each
+    // cell there (-1 when filtered out) and the cells filtered out
+    private final BlockMap global;
+    private final int[] globalIndices, localIndices;
+    private final BitSet hiddenCells;
+    private int[] cellIndices = null;
+
+    public BlockMap(List<BlockMapEntry> blockMapEntries, boolean dominant, boolean perceptual) {
+        this(blockMapEntries, dominant, perceptual, null);
+    }
+
+    public BlockMap(List<BlockMapEntry> blockMapEntries, boolean dominant, boolean perceptual, Consumer<BlockMapBuilder.Snapshot> progress) {
+        this(blockMapEntries, dominant, perceptual, progress, 0, () -> false);
+    }
 
-    public BlockMap(List<BlockMapEntry> blockMapEntries, boolean dominant) {
-        BlockMapBuilder builder = new BlockMapBuilder(blockMapEntries, dominant);
+    public BlockMap(List<BlockMapEntry> blockMapEntries, boolean dominant, boolean perceptual, Consumer<BlockMapBuilder.Snapshot> progress, long refineBudgetMs, BooleanSupplier cancelled) {
+        BlockMapBuilder builder = new BlockMapBuilder(blockMapEntries, dominant, perceptual, progress);
+        builder.refine(refineBudgetMs, cancelled);
         cells = new ArrayList<>(blockMapEntries.size());
         width = builder.width();
         height = builder.height();
+        this.dominant = dominant;
         Iterator<Iterator<BlockMapEntry>> rows = builder.grid();
         for (int x = 0; x < width; x++) {
             Iterator<BlockMapEntry> row = rows.next();
@@ -23,6 +66,153 @@ public class BlockMap {
                 }
             }
         }
+        global = null;
+        globalIndices = null;
+        localIndices = null;
+        hiddenCells = null;
+        gradient = new BlockMapGradient(cells, dominant);
+    }
+
+    // Places the entries where a prebuilt layout puts their blocks. A cell takes an entry of one of its blocks whose
+    // texture has the cell's average color, so that each texture of a block finds its own cell. Entries the layout
+    // does not know about (blocks or textures that changed since it was generated) are appended in rows below it.
+    public BlockMap(BlockMapLayout layout, List<BlockMapEntry> blockMapEntries) {
+        Map<String, List<BlockMapEntry>> byBlockTexture = new HashMap<>();
+        for (BlockMapEntry entry : blockMapEntries) {
+            String texture = BlockMapLayout.textureKey(entry);
+            for (Block block : entry.getBlocks().keySet()) {
+                byBlockTexture.computeIfAbsent(Registry.BLOCK.getId(block) + texture, key -> new ArrayList<>()).add(entry);
+            }
+        }
+        Set<BlockMapEntry> placed = Collections.newSetFromMap(new IdentityHashMap<>());
+        cells = new ArrayList<>(blockMapEntries.size());
+        for (BlockMapLayout.Cell cell : layout.cells) {
+            BlockMapEntry entry = null;
+            for (String block : cell.blocks) {
+                entry = byBlockTexture.getOrDefault(block + cell.texture, List.of()).stream()
+                        .filter(candidate -> !placed.contains(candidate)).findFirst().orElse(null);
+                if (entry != null) break;
+            }
+            if (entry != null) {
+                placed.add(entry);
+                cells.add(new Cell(entry, cell.x, cell.y));
+            }
+        }
+        int rowWidth = Math.max(1, layout.width), extra = 0;
+        for (BlockMapEntry entry : blockMapEntries) {
+            if (!placed.contains(entry)) {
+                cells.add(new Cell(entry, extra % rowWidth, layout.height + extra / rowWidth));
+                extra++;
+            }
+        }
+        width = extra > 0 ? rowWidth : layout.width;
+        height = layout.height + (extra + rowWidth - 1) / rowWidth;
+        dominant = layout.dominant;
+        global = null;
+        globalIndices = null;
+        localIndices = null;
+        hiddenCells = null;
+        gradient = new BlockMapGradient(cells, dominant);
+    }
+
+    // The sub-map keeps the layout of the global map. Rows and columns without any kept cell are removed, then the
+    // rows are squeezed to the length of the longest one: each cell goes to its column scaled down to that length,
+    // or right after the previous cell of its row, so that cells stay roughly below the ones they were below before.
+    // The builder's sections are not reused: merged sections replace their parts, so once stitched the only structure
+    // left is the global grid itself, and maps loaded from a prebuilt layout never had sections at all.
+    private BlockMap(BlockMap global, BlockMapFilter filter) {
+        List<List<Integer>> rows = new ArrayList<>(global.height);
+        for (int y = 0; y < global.height; y++) {
+            rows.add(new ArrayList<>());
+        }
+        boolean[] keptColumns = new boolean[global.width];
+        int count = 0;
+        for (int i = 0; i < global.cells.size(); i++) {
+            Cell cell = global.cells.get(i);
+            if (filter.test(cell.entry)) {
+                rows.get(cell.cellY).add(i);
+                keptColumns[cell.cellX] = true;
+                count++;
+            }
+        }
+        int[] columns = new int[global.width];
+        int keptWidth = 0, longest = 0;
+        for (int x = 0; x < global.width; x++) {
+            columns[x] = keptWidth;
+            if (keptColumns[x]) keptWidth++;
+        }
+        for (List<Integer> row : rows) {
+            longest = Math.max(longest, row.size());
+        }
+
+        cells = new ArrayList<>(count);
+        globalIndices = new int[count];
+        int y = 0, maxWidth = 0;
+        for (List<Integer> row : rows) {
+            if (row.isEmpty()) continue;
+            row.sort(Comparator.comparingInt(i -> global.cells.get(i).cellX));
+            int x = -1;
+            for (int i : row) {
+                Cell cell = global.cells.get(i);
+                x = Math.max(x + 1, columns[cell.cellX] * longest / keptWidth);
+                globalIndices[cells.size()] = i;
+                cells.add(new Cell(cell.entry, x, y));
+            }
+            maxWidth = Math.max(maxWidth, x + 1);
+            y++;
+        }
+        width = maxWidth;
+        height = y;
+        dominant = global.dominant;
+        this.global = global;
+        localIndices = new int[global.cells.size()];
+        Arrays.fill(localIndices, -1);
+        for (int i = 0; i < globalIndices.length; i++) {
+            localIndices[globalIndices[i]] = i;
+        }
+        hiddenCells = new BitSet(localIndices.length);
+        for (int i = 0; i < localIndices.length; i++) {
+            if (localIndices[i] < 0) hiddenCells.set(i);
+        }
+        gradient = null;
+    }
+
+    public BlockMap getSubMap(BlockMapFilter filter) {
+        return subMaps.computeIfAbsent(filter.key, key -> new BlockMap(this, filter));
+    }
+
+    public BlockMapSearchIndex getSearchIndex() {
+        String language = MinecraftClient.getInstance().getLanguageManager().getLanguage().getCode();
+        return searchIndices.computeIfAbsent(language, l -> new BlockMapSearchIndex(cells));
+    }
+
+    // index in cells of the cell at the given position, -1 for holes and positions outside of the map
+    public int cellIndexAt(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return -1;
+        }
+        if (cellIndices == null) {
+            int[] indices = new int[width * height];
+            Arrays.fill(indices, -1);
+            for (int i = 0; i < cells.size(); i++) {
+                indices[cells.get(i).cellX + cells.get(i).cellY * width] = i;
+            }
+            cellIndices = indices;
+        }
+        return cellIndices[x + y * width];
+    }
+
+    // Cell indices of a gradient between two cells of this map, see BlockMapGradient. Sub-maps search the graph of
+    // the global map, walking through the cells they hide without picking them.
+    public int[] gradient(int from, int to, int steps) {
+        if (global == null) {
+            return gradient.gradient(from, to, steps);
+        }
+        int[] path = global.gradient.gradient(globalIndices[from], globalIndices[to], steps, hiddenCells);
+        for (int i = 0; i < path.length; i++) {
+            path[i] = localIndices[path[i]];
+        }
+        return path;
     }
 
     public class Cell {
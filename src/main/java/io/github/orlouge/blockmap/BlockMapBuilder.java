@@ -5,27 +5,51 @@ import net.minecraft.util.math.Vec3d;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public class BlockMapBuilder {
     private final List<Entry> entries;
     private final Set<Section> sections;
     private final PriorityQueue<PriorityQueue<SectionMerge>> mergeQueue;
-    private final boolean dominant;
+    private final boolean dominant, perceptual;
     private final int PC_ITERATIONS = 10;
+    private static final int REFINE_TILE = 12, REFINE_MAX_SEGMENT = 4;
+    // brings OKLab border distances to the range the Schedule thresholds were tuned for. Picked on the BlockMapEvaluation
+    // synthetic sets: x1 leaves max dE near 0.37, x4 lowers dE further but grows uniform-1000 by 60% (holes 0.89 -> 0.93)
+    private static final double OKLAB_SCALE = 2.0;
     private final int regionCount;
     private final Set<Section>[][] regions;
+    private final Consumer<Snapshot> progress;
+    private final double previewOriginX, previewOriginY, previewScale;
+    private final Schedule schedule;
+    private double candidateMaxDist;
+    private int candidateMaxHoles;
+    private Map<Section, List<SectionMerge>> candidates = null;
+
+    public BlockMapBuilder(List<BlockMapEntry> blockMapEntries, boolean dominant, boolean perceptual) {
+        this(blockMapEntries, dominant, perceptual, null);
+    }
 
+    public BlockMapBuilder(List<BlockMapEntry> blockMapEntries, boolean dominant, boolean perceptual, Consumer<Snapshot> progress) {
+        this(blockMapEntries, dominant, perceptual, progress, Schedule.DEFAULT);
+    }
 
-    public BlockMapBuilder(List<BlockMapEntry> blockMapEntries, boolean dominant) {
+    public BlockMapBuilder(List<BlockMapEntry> blockMapEntries, boolean dominant, boolean perceptual, Consumer<Snapshot> progress, Schedule schedule) {
+        this.schedule = schedule;
         this.dominant = dominant;
+        this.perceptual = perceptual;
+        this.progress = progress;
 
         final Vec3d pc1, pc2;
 
         BlockMapClientMod.LOGGER.info("PC ...");
-        pc1 = updatePC(new Vec3d(-0.5d, 0d, 0.5d).normalize(), null, PC_ITERATIONS, dominant, blockMapEntries);
-        pc2 = updatePC(new Vec3d(0d, 1d, 0d).normalize(), pc1, PC_ITERATIONS, dominant, blockMapEntries);
+        pc1 = updatePC(new Vec3d(-0.5d, 0d, 0.5d).normalize(), null, PC_ITERATIONS, dominant, perceptual, blockMapEntries);
+        pc2 = updatePC(new Vec3d(0d, 1d, 0d).normalize(), pc1, PC_ITERATIONS, dominant, perceptual, blockMapEntries);
         BlockMapClientMod.LOGGER.info(pc1.toString());
         BlockMapClientMod.LOGGER.info(pc2.toString());
 
@@ -45,15 +69,18 @@ public class BlockMapBuilder {
         this.entries = blockMapEntries.stream()
                 .filter(entry -> dominant ? entry.hasDominant : true)
                 .map(entry -> {
-                    double x = pc1.dotProduct(dominant ? entry.dominantFeatures() : entry.averageFeatures());
-                    double y = pc2.dotProduct(dominant ? entry.dominantFeatures() : entry.averageFeatures());
+                    Vec3d features = dominant ? entry.dominantFeatures(perceptual) : entry.averageFeatures(perceptual);
+                    double x = pc1.dotProduct(features);
+                    double y = pc2.dotProduct(features);
                     boundsX[0] = Math.min(x, boundsX[0]);
                     boundsX[1] = Math.max(x, boundsX[1]);
                     boundsY[0] = Math.min(y, boundsY[0]);
                     boundsY[1] = Math.max(y, boundsY[1]);
-                    return new Entry(entry, x, y,
-                            dominant ? entry.dominantFeatures().multiply(3) : entry.averageFeatures().multiply(3)
-                    );
+                    // borders are compared in unscaled OKLab, perceptualFeatures() only flattens lightness for the plane
+                    Vec3d color = perceptual
+                            ? (dominant ? entry.dominantOklab() : entry.averageOklab()).multiply(OKLAB_SCALE)
+                            : features.multiply(3);
+                    return new Entry(entry, x, y, color);
                 }).collect(Collectors.toList());
 
         this.sections = this.entries.stream().map(e -> {
@@ -66,61 +93,113 @@ public class BlockMapBuilder {
         this.mergeQueue = new PriorityQueue<>(Comparator.comparing(queue -> queue.peek()));
         HashMap<Section, Set<Section>> initialNeighbors = new HashMap<>();
 
-        double maxDist = 0.01;
+        // spread the PC plane over about twice as many cells as there are entries
+        double extentX = Math.max(boundsX[1] - boundsX[0], 1e-6), extentY = Math.max(boundsY[1] - boundsY[0], 1e-6);
+        previewOriginX = boundsX[0];
+        previewOriginY = boundsY[0];
+        previewScale = Math.sqrt(2d * this.entries.size() / (extentX * extentY));
+        publish();
+
+        List<Double> roundDists = new ArrayList<>();
+        List<Integer> roundHoles = new ArrayList<>();
+        double maxDist = schedule.initialMaxDist;
+        int maxHoles = schedule.initialMaxHoles;
+        while (maxDist < schedule.finalMaxDist) {
+            roundDists.add(maxDist);
+            roundHoles.add(maxHoles);
+            maxDist *= schedule.growth;
+            maxHoles = maxDist > schedule.unlimitedHolesAbove ? -1 : maxDist < schedule.initialHolesBelow ? schedule.initialMaxHoles : maxHoles + schedule.holesStep;
+        }
+
+        // Candidates are scored once against the loosest round and carried over between rounds,
+        // only newly merged sections are scored again. Rounds in which nothing is eligible are skipped.
+        candidateMaxDist = roundDists.isEmpty() ? 0 : roundDists.get(roundDists.size() - 1);
+        candidateMaxHoles = roundHoles.stream().anyMatch(holes -> holes <= 0) ? -1 : roundHoles.stream().max(Integer::compare).orElse(-1);
+        candidates = new HashMap<>();
+        Section[] initialSections = sections.toArray(new Section[0]);
+        List<List<SectionMerge>> initialCandidates = Arrays.asList(new List[initialSections.length]);
+        IntStream.range(0, initialSections.length).parallel().forEach(i -> initialCandidates.set(i, scoreCandidates(initialSections[i])));
+        for (int i = 0; i < initialSections.length; i++) {
+            candidates.put(initialSections[i], initialCandidates.get(i));
+        }
 
-        int maxHoles = 1;
-        while (maxDist < 0.5) {
-            BlockMapClientMod.LOGGER.info("enqueue " + sections.size());
-            for (Section section : sections) {
-                Set<Section> currentNeighbors = getNeighbors(section);
-                if (currentNeighbors.size() == 0) {
-                    BlockMapClientMod.LOGGER.info("repopulating* " + sections.size());
-                    currentNeighbors.addAll(sections);
-                }
-                currentNeighbors.remove(section);
+        for (int round = nextRound(0, roundDists, roundHoles); round < roundDists.size(); round = nextRound(round + 1, roundDists, roundHoles)) {
+            final double roundMaxDist = roundDists.get(round);
+            final int roundMaxHoles = roundHoles.get(round);
+            BlockMapClientMod.LOGGER.info("enqueue " + sections.size() + " at " + roundMaxDist);
+            enqueueAll(section -> {
                 PriorityQueue<SectionMerge> sectionQueue = new PriorityQueue<>();
-                for (Section neighbor : currentNeighbors) {
-                    sectionQueue.addAll(Section.merge(section, neighbor, maxDist, maxHoles));
-                }
-                if (sectionQueue.size() > 0) {
-                    mergeQueue.add(sectionQueue);
+                for (SectionMerge merge : candidates.get(section)) {
+                    if (merge.allowedBy(roundMaxDist, roundMaxHoles) && sections.contains(merge.section1) && sections.contains(merge.section2)) {
+                        sectionQueue.add(merge);
+                    }
                 }
-            }
+                return sectionQueue;
+            });
             BlockMapClientMod.LOGGER.info("merging " + mergeQueue.size());
-            mergeAll(maxDist, maxHoles);
-            maxDist *= 1.1;
-            maxHoles = maxDist > 0.35 ? -1 : maxDist < 0.05 ? 1 : maxHoles + 1;
+            mergeAll(roundMaxDist, roundMaxHoles);
+            publish();
         }
+        candidates = null;
 
         BlockMapClientMod.LOGGER.info("stitching " + sections.size());
-        for (Section section : sections) {
+        enqueueAll(section -> {
             PriorityQueue<SectionMerge> sectionQueue = new PriorityQueue<>();
             for (Section neighbor : getNeighbors(section)) {
                 sectionQueue.addAll(Section.forceMerge(section, neighbor, true));
             }
-            if (sectionQueue.size() > 0) {
-                mergeQueue.add(sectionQueue);
-            }
-        }
+            return sectionQueue;
+        });
 
         boolean ordered = true;
         while (sections.size() > 1) {
             BlockMapClientMod.LOGGER.info("stitching/merging " + sections.size() + "," + mergeQueue.size());
             mergeAll(maxDist, -1);
+            publish();
 
-            for (Section section1 : sections) {
+            final boolean roundOrdered = ordered;
+            enqueueAll(section1 -> {
                 PriorityQueue<SectionMerge> sectionQueue = new PriorityQueue<>();
                 for (Section section2 : sections) {
                     if (section1 != section2) {
-                        sectionQueue.addAll(Section.forceMerge(section1, section2, ordered));
+                        sectionQueue.addAll(Section.forceMerge(section1, section2, roundOrdered));
                     }
                 }
-                if (sectionQueue.size() > 0) {
-                    mergeQueue.add(sectionQueue);
+                return sectionQueue;
+            });
+            ordered = false;
+        }
+    }
+
+    private List<SectionMerge> scoreCandidates(Section section) {
+        Set<Section> currentNeighbors = getNeighbors(section);
+        if (currentNeighbors.size() == 0) {
+            BlockMapClientMod.LOGGER.info("repopulating* " + sections.size());
+            currentNeighbors.addAll(sections);
+        }
+        currentNeighbors.remove(section);
+        List<SectionMerge> sectionCandidates = new ArrayList<>();
+        for (Section neighbor : currentNeighbors) {
+            sectionCandidates.addAll(Section.merge(section, neighbor, candidateMaxDist, candidateMaxHoles));
+        }
+        return sectionCandidates;
+    }
+
+    private int nextRound(int round, List<Double> roundDists, List<Integer> roundHoles) {
+        int next = roundDists.size();
+        for (List<SectionMerge> sectionCandidates : candidates.values()) {
+            for (SectionMerge merge : sectionCandidates) {
+                if (!sections.contains(merge.section1) || !sections.contains(merge.section2)) continue;
+                for (int r = round; r < next; r++) {
+                    if (merge.allowedBy(roundDists.get(r), roundHoles.get(r))) {
+                        next = r;
+                        break;
+                    }
                 }
+                if (next == round) return next;
             }
-            ordered = false;
         }
+        return next;
     }
 
     @NotNull
@@ -161,6 +240,19 @@ public class BlockMapBuilder {
         return currentNeighbors;
     }
 
+    // Scoring only reads the sections, so every section's candidates are built concurrently
+    // into its own slot, then queued in iteration order exactly as a serial loop would.
+    private void enqueueAll(Function<Section, PriorityQueue<SectionMerge>> candidates) {
+        Section[] current = sections.toArray(new Section[0]);
+        List<PriorityQueue<SectionMerge>> sectionQueues = Arrays.asList(new PriorityQueue[current.length]);
+        IntStream.range(0, current.length).parallel().forEach(i -> sectionQueues.set(i, candidates.apply(current[i])));
+        for (PriorityQueue<SectionMerge> sectionQueue : sectionQueues) {
+            if (sectionQueue.size() > 0) {
+                mergeQueue.add(sectionQueue);
+            }
+        }
+    }
+
     private void mergeAll(double maxDist, int maxHoles) {
         while (!mergeQueue.isEmpty() && sections.size() > 1) {
             PriorityQueue<SectionMerge> sectionQueue = mergeQueue.poll();
@@ -170,6 +262,135 @@ public class BlockMapBuilder {
         }
     }
 
+    private void publish() {
+        if (progress == null) return;
+        List<Placement> placements = new ArrayList<>(entries.size());
+        double width = 0, height = 0;
+        for (Section section : sections) {
+            double left = (Math.min(section.minX, section.maxX) - previewOriginX) * previewScale;
+            double top = (Math.min(section.minY, section.maxY) - previewOriginY) * previewScale;
+            for (int x = 0; x < section.width; x++) {
+                for (int y = 0; y < section.height; y++) {
+                    Entry entry = section.entries[x][y];
+                    if (entry != null) {
+                        placements.add(new Placement(entry.entry, left + x, top + y));
+                    }
+                }
+            }
+            width = Math.max(width, left + section.width);
+            height = Math.max(height, top + section.height);
+        }
+        progress.accept(new Snapshot(Collections.unmodifiableList(placements), width, height));
+    }
+
+    // Anytime local search on the final grid: cell swaps and segment flips are kept when they lower the
+    // summed distance to the neighbouring cells. A cell next to a hole pays the mean neighbour distance of
+    // the initial grid for it, otherwise moving cells away from each other would look like an improvement.
+    // The grid is cut into tiles processed in four checkerboard phases, so tiles refined concurrently never
+    // read each other's cells.
+    public void refine(long budgetMs, BooleanSupplier cancelled) {
+        if (sections.size() != 1 || budgetMs <= 0) return;
+        Entry[][] grid = sections.iterator().next().entries;
+        int width = grid.length, height = width > 0 ? grid[0].length : 0;
+        long deadline = System.nanoTime() + budgetMs * 1000000L;
+        double distances = 0;
+        int edges = 0;
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                if (grid[x][y] == null) continue;
+                if (x + 1 < width && grid[x + 1][y] != null) {
+                    distances += grid[x][y].color.distanceTo(grid[x + 1][y].color);
+                    edges++;
+                }
+                if (y + 1 < height && grid[x][y + 1] != null) {
+                    distances += grid[x][y].color.distanceTo(grid[x][y + 1].color);
+                    edges++;
+                }
+            }
+        }
+        double holeCost = distances / Math.max(1, edges);
+        int tilesX = width / REFINE_TILE + 2, tilesY = height / REFINE_TILE + 2;
+        for (int sweep = 0; System.nanoTime() < deadline && !cancelled.getAsBoolean(); sweep++) {
+            // shifting the tiles between sweeps lets cells cross the previous tile borders
+            int shift = (sweep * 5) % REFINE_TILE;
+            for (int phase = 0; phase < 4; phase++) {
+                List<int[]> tiles = new ArrayList<>();
+                for (int tileX = phase % 2; tileX < tilesX; tileX += 2) {
+                    for (int tileY = phase / 2; tileY < tilesY; tileY += 2) {
+                        int x0 = Math.max(0, tileX * REFINE_TILE - shift), y0 = Math.max(0, tileY * REFINE_TILE - shift);
+                        int x1 = Math.min(width, (tileX + 1) * REFINE_TILE - shift), y1 = Math.min(height, (tileY + 1) * REFINE_TILE - shift);
+                        if (x1 > x0 && y1 > y0 && (x1 - x0 > 1 || y1 - y0 > 1)) {
+                            tiles.add(new int[]{x0, y0, x1, y1, sweep * 31 + tileX * 7919 + tileY});
+                        }
+                    }
+                }
+                tiles.parallelStream().forEach(tile -> refineTile(grid, tile[0], tile[1], tile[2], tile[3], holeCost, new Random(tile[4]), deadline, cancelled));
+            }
+        }
+    }
+
+    private static void refineTile(Entry[][] grid, int x0, int y0, int x1, int y1, double holeCost, Random random, long deadline, BooleanSupplier cancelled) {
+        int tileWidth = x1 - x0, tileHeight = y1 - y0;
+        for (int move = 0; move < tileWidth * tileHeight * 2; move++) {
+            if (move % 64 == 0 && (System.nanoTime() >= deadline || cancelled.getAsBoolean())) return;
+            int x = x0 + random.nextInt(tileWidth), y = y0 + random.nextInt(tileHeight);
+            if (random.nextBoolean()) {
+                int otherX = Math.max(x0, Math.min(x1 - 1, x + random.nextInt(5) - 2));
+                int otherY = Math.max(y0, Math.min(y1 - 1, y + random.nextInt(5) - 2));
+                if ((otherX == x && otherY == y) || (grid[x][y] == null && grid[otherX][otherY] == null)) continue;
+                double before = cellCost(grid, x, y, holeCost) + cellCost(grid, otherX, otherY, holeCost);
+                swap(grid, x, y, otherX, otherY);
+                if (cellCost(grid, x, y, holeCost) + cellCost(grid, otherX, otherY, holeCost) >= before) {
+                    swap(grid, x, y, otherX, otherY);
+                }
+            } else {
+                boolean xAxis = random.nextBoolean();
+                int length = Math.min(2 + random.nextInt(REFINE_MAX_SEGMENT - 1), xAxis ? x1 - x : y1 - y);
+                if (length < 2) continue;
+                int dx = xAxis ? 1 : 0, dy = xAxis ? 0 : 1;
+                // edges inside the segment are counted twice, but reversing keeps the same internal pairs
+                double before = 0, after = 0;
+                for (int i = 0; i < length; i++) before += cellCost(grid, x + i * dx, y + i * dy, holeCost);
+                flip(grid, x, y, dx, dy, length);
+                for (int i = 0; i < length; i++) after += cellCost(grid, x + i * dx, y + i * dy, holeCost);
+                if (after >= before) {
+                    flip(grid, x, y, dx, dy, length);
+                }
+            }
+        }
+    }
+
+    // edges between a cell and a hole are counted from the side of the hole too, so that moving a cell into a
+    // hole is scored at both of the positions
+    private static double cellCost(Entry[][] grid, int x, int y, double holeCost) {
+        Entry entry = grid[x][y];
+        double cost = 0;
+        if (x > 0) cost += edgeCost(entry, grid[x - 1][y], holeCost);
+        if (x < grid.length - 1) cost += edgeCost(entry, grid[x + 1][y], holeCost);
+        if (y > 0) cost += edgeCost(entry, grid[x][y - 1], holeCost);
+        if (y < grid[x].length - 1) cost += edgeCost(entry, grid[x][y + 1], holeCost);
+        return cost;
+    }
+
+    private static double edgeCost(Entry entry, Entry other, double holeCost) {
+        if (entry == null && other == null) return 0;
+        if (entry == null || other == null) return holeCost;
+        return entry.color.distanceTo(other.color);
+    }
+
+    private static void swap(Entry[][] grid, int x, int y, int otherX, int otherY) {
+        Entry entry = grid[x][y];
+        grid[x][y] = grid[otherX][otherY];
+        grid[otherX][otherY] = entry;
+    }
+
+    private static void flip(Entry[][] grid, int x, int y, int dx, int dy, int length) {
+        for (int i = 0; i < length / 2; i++) {
+            int j = length - 1 - i;
+            swap(grid, x + i * dx, y + i * dy, x + j * dx, y + j * dy);
+        }
+    }
+
     public Iterator<Iterator<BlockMapEntry>> grid() {
         return Arrays.stream(sections.iterator().next().entries).map(
                 row -> Arrays.stream(row).map(e -> e != null ? e.entry : null).iterator()
@@ -205,11 +426,21 @@ public class BlockMapBuilder {
             regions[regionX][regionY].add(merged);
         }
 
-        Set<Section> mergedNeighbors = getNeighbors(merged);
-
-        List<SectionMerge> newMerges = mergedNeighbors.stream().flatMap(
-                other -> Section.merge(merged, other, maxDist, maxHoles).stream()
-        ).collect(Collectors.toList());
+        List<SectionMerge> newMerges;
+        if (candidates != null) {
+            List<SectionMerge> mergedCandidates = scoreCandidates(merged);
+            candidates.remove(section1);
+            candidates.remove(section2);
+            candidates.put(merged, mergedCandidates);
+            newMerges = mergedCandidates.stream()
+                    .filter(sectionMerge -> sectionMerge.allowedBy(maxDist, maxHoles))
+                    .collect(Collectors.toList());
+        } else {
+            Set<Section> mergedNeighbors = getNeighbors(merged);
+            newMerges = mergedNeighbors.stream().flatMap(
+                    other -> Section.merge(merged, other, maxDist, maxHoles).stream()
+            ).collect(Collectors.toList());
+        }
 
         if (newMerges.size() > 0) {
             mergeQueue.add(new PriorityQueue<>(newMerges));
@@ -223,7 +454,7 @@ public class BlockMapBuilder {
     }
 
     // Fast Dimensionality Reduction and Simple PCA (Patridge et al.)
-    private static Vec3d updatePC(Vec3d pc, Vec3d orthogonalTo, int iterations, boolean dominant, Collection<BlockMapEntry> entries) {
+    private static Vec3d updatePC(Vec3d pc, Vec3d orthogonalTo, int iterations, boolean dominant, boolean perceptual, Collection<BlockMapEntry> entries) {
         for (int iter = 0; iter < iterations; iter++) {
             Vec3d sum = new Vec3d(0d, 0d, 0d);
 
@@ -231,9 +462,9 @@ public class BlockMapBuilder {
                 Vec3d x;
                 if (dominant) {
                     if (!entry.hasDominant) continue;
-                    x = entry.dominantFeatures();
+                    x = entry.dominantFeatures(perceptual);
                 } else {
-                    x = entry.averageFeatures();
+                    x = entry.averageFeatures(perceptual);
                 }
                 if (orthogonalTo != null) {
                     x = x.subtract(orthogonalTo.multiply(orthogonalTo.dotProduct(x)));
@@ -308,18 +539,19 @@ public class BlockMapBuilder {
     private static class SectionMerge implements Comparable {
         private final Section section1, section2;
         private final double dist;
-        private final int holes;
+        private final int holes, requiredHoles;
         private final boolean xAxis;
 
         private final int stride;
         private final boolean flip1, flip2;
         private final int m1, m2, o1, o2, width, height, off1, off2;
 
-        private SectionMerge(Section section1, Section section2, double dist, int holes, boolean x, int stride, boolean flip1, boolean flip2, int m1, int m2, int o1, int o2, int width, int height, int off1, int off2) {
+        private SectionMerge(Section section1, Section section2, double dist, int holes, int requiredHoles, boolean x, int stride, boolean flip1, boolean flip2, int m1, int m2, int o1, int o2, int width, int height, int off1, int off2) {
             this.section1 = section1;
             this.section2 = section2;
             this.dist = dist;
             this.holes = holes;
+            this.requiredHoles = requiredHoles;
             this.xAxis = x;
             this.stride = stride;
             this.flip1 = flip1;
@@ -348,6 +580,7 @@ public class BlockMapBuilder {
             elongation = width * height == 2 && elongation > 0 ? 0 : elongation;
             holes = Math.max(0, elongation + holes);
             if (maxHoles > 0 && holes > maxHoles) return null;
+            int requiredHoles = holes;
             double maxDist = Double.POSITIVE_INFINITY;
             int off1 = 0, off2 = 0;
             double unit1 = xAxis ? (section1.maxY - section1.minY) / (double) section1.height
@@ -394,6 +627,7 @@ public class BlockMapBuilder {
                     section2,
                     maxDist,
                     holes,
+                    requiredHoles,
                     xAxis,
                     stride,
                     flip1,
@@ -409,6 +643,10 @@ public class BlockMapBuilder {
             );
         }
 
+        public boolean allowedBy(double maxDist, int maxHoles) {
+            return dist <= maxDist && (maxHoles <= 0 || requiredHoles <= maxHoles);
+        }
+
         public Section getMergedSection() {
             Entry[][] entries = new Entry[width][height];
             int i;
@@ -475,6 +713,46 @@ public class BlockMapBuilder {
         }
     }
 
+    public static class Schedule {
+        public static final Schedule DEFAULT = new Schedule(0.01, 0.5, 1.1, 1, 1, 0.05, 0.35);
+        public final double initialMaxDist, finalMaxDist, growth;
+        // maxHoles stays at initialMaxHoles below initialHolesBelow, grows by holesStep per round, and is lifted above unlimitedHolesAbove
+        public final int initialMaxHoles, holesStep;
+        public final double initialHolesBelow, unlimitedHolesAbove;
+
+        public Schedule(double initialMaxDist, double finalMaxDist, double growth, int initialMaxHoles, int holesStep, double initialHolesBelow, double unlimitedHolesAbove) {
+            this.initialMaxDist = initialMaxDist;
+            this.finalMaxDist = finalMaxDist;
+            this.growth = growth;
+            this.initialMaxHoles = initialMaxHoles;
+            this.holesStep = holesStep;
+            this.initialHolesBelow = initialHolesBelow;
+            this.unlimitedHolesAbove = unlimitedHolesAbove;
+        }
+    }
+
+    public static class Snapshot {
+        public final List<Placement> placements;
+        public final double width, height;
+
+        private Snapshot(List<Placement> placements, double width, double height) {
+            this.placements = placements;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    public static class Placement {
+        public final BlockMapEntry entry;
+        public final double x, y;
+
+        private Placement(BlockMapEntry entry, double x, double y) {
+            this.entry = entry;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
     private static class Entry {
         private final BlockMapEntry entry;
         private final double x, y;
@@ -1,22 +1,34 @@
 package io.github.orlouge.blockmap;
 
+import com.mojang.brigadier.arguments.ArgumentType;
+import com.mojang.brigadier.arguments.BoolArgumentType;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import net.fabricmc.api.ClientModInitializer;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
+import net.fabricmc.fabric.api.client.command.v1.ClientCommandManager;
+import net.fabricmc.fabric.api.client.command.v1.FabricClientCommandSource;
 import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
 import net.fabricmc.fabric.api.client.keybinding.v1.KeyBindingHelper;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.option.KeyBinding;
 import net.minecraft.client.util.InputUtil;
+import net.minecraft.text.Text;
 import org.lwjgl.glfw.GLFW;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
 @Environment(EnvType.CLIENT)
 public class BlockMapClientMod implements ClientModInitializer {
     public static final Logger LOGGER = LoggerFactory.getLogger("blockmap");
     public static KeyBinding openBlockMapKeyBinding;
-    private static BlockMap averageBlockMap, dominantBlockMap;
 
     @Override
     public void onInitializeClient() {
@@ -27,19 +39,54 @@ public class BlockMapClientMod implements ClientModInitializer {
                 "category.blockmap.blockmap"
         ));
 
+        ClientCommandManager.DISPATCHER.register(ClientCommandManager.literal("blockmap")
+                .then(ClientCommandManager.literal("evaluate").executes(context -> {
+                    context.getSource().sendFeedback(Text.of("Evaluating block map layouts..."));
+                    BlockMapEvaluation.evaluate(evaluationDirectory()).whenCompleteAsync((report, e) -> {
+                        if (e != null) {
+                            LOGGER.error("Could not evaluate block map layouts", e);
+                            context.getSource().sendError(Text.of("Evaluation failed: " + e.getMessage()));
+                        } else {
+                            context.getSource().sendFeedback(Text.of("Evaluation report written to " + report.getFileName()));
+                        }
+                    }, MinecraftClient.getInstance());
+                    return 1;
+                }))
+                .then(ClientCommandManager.literal("capture").then(
+                        ClientCommandManager.argument("name", StringArgumentType.word()).executes(context -> {
+                            try {
+                                Path capture = BlockMapEvaluation.capture(
+                                        evaluationDirectory(),
+                                        StringArgumentType.getString(context, "name"),
+                                        BlockMapManager.getEntries()
+                                );
+                                context.getSource().sendFeedback(Text.of("Captured block colors to " + capture.getFileName()));
+                            } catch (IOException e) {
+                                LOGGER.error("Could not capture block colors", e);
+                                context.getSource().sendError(Text.of("Capture failed: " + e.getMessage()));
+                            }
+                            return 1;
+                        })
+                ))
+                .then(setting("perceptual", BoolArgumentType.bool(), Boolean.class,
+                        BlockMapManager::isPerceptual, BlockMapManager::setPerceptual))
+                .then(setting("allstates", BoolArgumentType.bool(), Boolean.class,
+                        BlockMapManager::isAllStates, BlockMapManager::setAllStates))
+                // milliseconds spent refining the map after it is built, 0 to skip it
+                .then(setting("refine", IntegerArgumentType.integer(0, 60000), Integer.class,
+                        () -> (int) BlockMapManager.getRefineBudgetMs(), budgetMs -> BlockMapManager.setRefineBudgetMs(budgetMs)))
+        );
+
         ClientTickEvents.END_CLIENT_TICK.register(client -> {
             MinecraftClient mc = MinecraftClient.getInstance();
             if (openBlockMapKeyBinding.wasPressed()) {
-                if (averageBlockMap == null) {
-                    averageBlockMap = BlockMapManager.getBlockMap(false);
-                }
-                if (dominantBlockMap == null) {
-                    dominantBlockMap = BlockMapManager.getBlockMap(true);
-                }
                 while (openBlockMapKeyBinding.wasPressed());
                 if (mc.player != null && mc.player.world != null) {
                     if (mc.currentScreen == null) {
-                        mc.setScreen(new BlockMapScreen(averageBlockMap, dominantBlockMap));
+                        mc.setScreen(new BlockMapScreen(
+                                BlockMapManager.getBlockMapAsync(false),
+                                BlockMapManager.getBlockMapAsync(true)
+                        ));
                     } else if (mc.currentScreen instanceof BlockMapScreen) {
                         ((BlockMapScreen) mc.currentScreen).switchBlockMap();
                     }
@@ -47,4 +94,24 @@ public class BlockMapClientMod implements ClientModInitializer {
             }
         });
     }
+
+    // "/blockmap <name>" shows the current value, "/blockmap <name> <value>" changes it
+    private static <T> LiteralArgumentBuilder<FabricClientCommandSource> setting(
+            String name, ArgumentType<T> type, Class<T> valueClass, Supplier<T> getter, Consumer<T> setter
+    ) {
+        return ClientCommandManager.literal(name)
+                .executes(context -> {
+                    context.getSource().sendFeedback(Text.of(name + " is " + getter.get()));
+                    return 1;
+                })
+                .then(ClientCommandManager.argument("value", type).executes(context -> {
+                    setter.accept(context.getArgument("value", valueClass));
+                    context.getSource().sendFeedback(Text.of(name + " set to " + getter.get() + ", block maps will be rebuilt"));
+                    return 1;
+                }));
+    }
+
+    private static Path evaluationDirectory() {
+        return MinecraftClient.getInstance().runDirectory.toPath().resolve("blockmaps").resolve("evaluation");
+    }
 }
@@ -10,43 +10,71 @@ import net.minecraft.util.math.Vec3d;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.function.IntBinaryOperator;
 
 public class BlockMapEntry {
     private double dominantR, dominantG, dominantB;
     private double averageR, averageG, averageB;
+    private double linearDominantR, linearDominantG, linearDominantB;
+    private double linearAverageR, linearAverageG, linearAverageB;
     public final boolean hasDominant;
     private final Map<Block, Set<Direction>> blocks =
             new TreeMap<>(Comparator.comparing(block -> block.getName().getString().length()));
     private final NativeImageBackedTexture texture;
     private static final int DOMINANT_PERCENTAGE = 85, DOMINANT_MAXDIFF = 7000;
+    private static final float[] SRGB_TO_LINEAR = new float[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            double c = i / 255d;
+            SRGB_TO_LINEAR[i] = (float) (c <= 0.04045d ? c / 12.92d : Math.pow((c + 0.055d) / 1.055d, 2.4d));
+        }
+    }
 
     public BlockMapEntry(Block block, NativeImage image, Direction direction) {
+        this(new NativeImageBackedTexture(image), image.getWidth(), image.getHeight(), image::getColor);
         this.blocks.put(block, direction != null ? new TreeSet<>(List.of(direction)) : null);
-        this.texture = new NativeImageBackedTexture(image);
-        int width = image.getWidth(), height = image.getHeight(), dominantCount = 0;
+    }
+
+    // Entry without a block or a texture, only its colors are known. Used by the offline generator,
+    // which has neither a registry nor a render thread. Colors are ABGR like NativeImage.getColor.
+    public BlockMapEntry(int width, int height, IntBinaryOperator colors) {
+        this(null, width, height, colors);
+    }
+
+    private BlockMapEntry(NativeImageBackedTexture texture, int width, int height, IntBinaryOperator colors) {
+        this.texture = texture;
+        int dominantCount = 0;
 
         int avgR = 0, avgG = 0, avgB = 0, domR = 0, domG = 0, domB = 0;
+        double linAvgR = 0, linAvgG = 0, linAvgB = 0, linDomR = 0, linDomG = 0, linDomB = 0;
 
         for (int y = 0; y < height; y++) {
             for (int x = 0; x < width; x++) {
-                int color = image.getColor(x, y);
+                int color = colors.applyAsInt(x, y);
                 int r = NativeImage.getRed(color), g = NativeImage.getGreen(color), b = NativeImage.getBlue(color);
                 avgR += r;
                 avgG += g;
                 avgB += b;
+                linAvgR += SRGB_TO_LINEAR[r];
+                linAvgG += SRGB_TO_LINEAR[g];
+                linAvgB += SRGB_TO_LINEAR[b];
             }
         }
 
         averageR = (double) avgR / ((double) (width * height) * 255d);
         averageG = (double) avgG / ((double) (width * height) * 255d);
         averageB = (double) avgB / ((double) (width * height) * 255d);
+        linearAverageR = linAvgR / (double) (width * height);
+        linearAverageG = linAvgG / (double) (width * height);
+        linearAverageB = linAvgB / (double) (width * height);
         avgR /= 255;
         avgG /= 255;
         avgB /= 255;
 
         for (int y = 0; y < height; y++) {
             for (int x = 0; x < width; x++) {
-                int color = image.getColor(x, y);
+                int color = colors.applyAsInt(x, y);
                 int r = NativeImage.getRed(color), g = NativeImage.getGreen(color), b = NativeImage.getBlue(color);
 
                 if (Math.pow(r - avgR, 2) + Math.pow(g - avgG, 2) + Math.pow(b - avgB, 2) > DOMINANT_MAXDIFF) {
@@ -56,6 +84,9 @@ public class BlockMapEntry {
                 domR += r;
                 domG += g;
                 domB += b;
+                linDomR += SRGB_TO_LINEAR[r];
+                linDomG += SRGB_TO_LINEAR[g];
+                linDomB += SRGB_TO_LINEAR[b];
                 dominantCount++;
             }
         }
@@ -63,10 +94,31 @@ public class BlockMapEntry {
         dominantR = (double) domR / ((double) dominantCount * 255);
         dominantG = (double) domG / ((double) dominantCount * 255);
         dominantB = (double) domB / ((double) dominantCount * 255);
+        linearDominantR = linDomR / (double) dominantCount;
+        linearDominantG = linDomG / (double) dominantCount;
+        linearDominantB = linDomB / (double) dominantCount;
 
         hasDominant = dominantCount > width * height * DOMINANT_PERCENTAGE / 100;
     }
 
+    public BlockMapEntry(BlockMapEntry other, Block block, Direction direction) {
+        this.blocks.put(block, direction != null ? new TreeSet<>(List.of(direction)) : null);
+        this.texture = other.texture;
+        this.dominantR = other.dominantR;
+        this.dominantG = other.dominantG;
+        this.dominantB = other.dominantB;
+        this.averageR = other.averageR;
+        this.averageG = other.averageG;
+        this.averageB = other.averageB;
+        this.linearDominantR = other.linearDominantR;
+        this.linearDominantG = other.linearDominantG;
+        this.linearDominantB = other.linearDominantB;
+        this.linearAverageR = other.linearAverageR;
+        this.linearAverageG = other.linearAverageG;
+        this.linearAverageB = other.linearAverageB;
+        this.hasDominant = other.hasDominant;
+    }
+
     public Vec3d averageColor() {
         return new Vec3d(averageR, averageG, averageB);
     }
@@ -82,6 +134,14 @@ public class BlockMapEntry {
     public Vec3d averageFeatures() {
         return features(averageColor()); }
 
+    public Vec3d dominantFeatures(boolean perceptual) {
+        return perceptual ? perceptualFeatures(linearDominantR, linearDominantG, linearDominantB) : dominantFeatures();
+    }
+
+    public Vec3d averageFeatures(boolean perceptual) {
+        return perceptual ? perceptualFeatures(linearAverageR, linearAverageG, linearAverageB) : averageFeatures();
+    }
+
     private static Vec3d features(Vec3d color) {
         double y = (color.x + color.y + color.z) / 3d;
         double a = (color.z - y) / 2d;
@@ -90,6 +150,33 @@ public class BlockMapEntry {
         return new Vec3d(a, b, c);
     }
 
+    public Vec3d dominantOklab() {
+        return oklab(linearDominantR, linearDominantG, linearDominantB);
+    }
+
+    public Vec3d averageOklab() {
+        return oklab(linearAverageR, linearAverageG, linearAverageB);
+    }
+
+    // OKLab laid out and scaled like features() for the PCA plane: blue-yellow, flattened lightness, green-red.
+    // Distances between neighbours use the unscaled OKLab colors, see BlockMapBuilder.
+    private static Vec3d perceptualFeatures(double r, double g, double b) {
+        Vec3d lab = oklab(r, g, b);
+        return new Vec3d(-lab.z, (lab.x - 0.5d) / 6d, lab.y);
+    }
+
+    // OKLab (Ottosson) from linear-light RGB, as (L, a, b)
+    private static Vec3d oklab(double r, double g, double b) {
+        double l = Math.cbrt(0.4122214708d * r + 0.5363325363d * g + 0.0514459929d * b);
+        double m = Math.cbrt(0.2119034982d * r + 0.6806995451d * g + 0.1073969566d * b);
+        double s = Math.cbrt(0.0883024619d * r + 0.2817188376d * g + 0.6299787005d * b);
+        return new Vec3d(
+                0.2104542553d * l + 0.7936177850d * m - 0.0040720468d * s,
+                1.9779984951d * l - 2.4285922050d * m + 0.4505937099d * s,
+                0.0259040371d * l + 0.7827717662d * m - 0.8086757660d * s
+        );
+    }
+
     public Map<Block, Set<Direction>> getBlocks() {
         return this.blocks;
     }
@@ -98,6 +185,10 @@ public class BlockMapEntry {
         return texture;
     }
 
+    public NativeImage getImage() {
+        return texture.getImage();
+    }
+
     public boolean tryMerge(BlockMapEntry other) {
         if (!this.isIdentical(other)) {
             return false;
@@ -116,6 +207,8 @@ public class BlockMapEntry {
     }
 
     public boolean isIdentical(BlockMapEntry other) {
+        if (this.texture == null || other.texture == null) return false;
+        if (this.texture == other.texture) return true;
         try {
             return Arrays.equals(this.texture.getImage().getBytes(), other.texture.getImage().getBytes());
         } catch (IOException e) {
@@ -0,0 +1,256 @@
+package io.github.orlouge.blockmap;
+
+import net.minecraft.client.texture.NativeImage;
+import net.minecraft.util.Util;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.util.registry.Registry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+public class BlockMapEvaluation {
+    private static final Logger LOGGER = LoggerFactory.getLogger("blockmap-evaluation");
+    private static final int REPEATS = 3;
+    private static final List<Configuration> CONFIGURATIONS = List.of(
+            new Configuration("default", false, BlockMapBuilder.Schedule.DEFAULT, 0),
+            new Configuration("perceptual", true, BlockMapBuilder.Schedule.DEFAULT, 0),
+            new Configuration("coarse", false, new BlockMapBuilder.Schedule(0.01, 0.5, 1.25, 1, 2, 0.05, 0.35), 0),
+            new Configuration("refined-250", false, BlockMapBuilder.Schedule.DEFAULT, 250)
+    );
+
+    // Headless run over the seeded datasets and the captures in the given directory (see capture), without the game
+    // allocating next to the builds, so that reports of different runs compare. The report is written there too.
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: BlockMapEvaluation <directory with capture-*.txt files>");
+            System.exit(2);
+        }
+        Path report = writeReport(Path.of(args[0]), datasets(Path.of(args[0])));
+        System.out.println("Evaluation report written to " + report);
+    }
+
+    // In game: the same datasets plus the live entries, built on a worker thread while the game keeps running.
+    // Must be called on the render thread, which collects the live entries.
+    public static CompletableFuture<Path> evaluate(Path directory) {
+        Map<String, List<BlockMapEntry>> datasets;
+        try {
+            datasets = datasets(directory);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        datasets.put("live", BlockMapManager.getEntries());
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return writeReport(directory, datasets);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, Util.getMainWorkerExecutor());
+    }
+
+    private static Map<String, List<BlockMapEntry>> datasets(Path directory) throws IOException {
+        Map<String, List<BlockMapEntry>> datasets = new LinkedHashMap<>();
+        datasets.put("uniform-1000", syntheticEntries(1000, 1, 0));
+        datasets.put("clustered-2000", syntheticEntries(2000, 2, 24));
+        try (Stream<Path> captures = Files.exists(directory) ? Files.list(directory) : Stream.empty()) {
+            for (Path capture : (Iterable<Path>) captures.sorted()::iterator) {
+                String fileName = capture.getFileName().toString();
+                if (fileName.startsWith("capture-") && fileName.endsWith(".txt")) {
+                    datasets.put(fileName.substring(0, fileName.length() - 4), loadCapture(capture));
+                }
+            }
+        }
+        return datasets;
+    }
+
+    private static Path writeReport(Path directory, Map<String, List<BlockMapEntry>> datasets) throws IOException {
+        Files.createDirectories(directory);
+        Path report = directory.resolve("evaluation-" + System.currentTimeMillis() + ".txt");
+        Files.writeString(report, report(datasets));
+        return report;
+    }
+
+    private static String report(Map<String, List<BlockMapEntry>> datasets) {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-24s %-12s %6s %9s %8s %8s %6s %6s %9s %8s %9s %9s%n",
+                "dataset", "config", "cells", "size", "mean dE", "max dE", "holes", "aspect", "build ms", "peak MB", "d mean", "d ms"));
+        for (Map.Entry<String, List<BlockMapEntry>> dataset : datasets.entrySet()) {
+            Metrics baseline = null;
+            for (Configuration configuration : CONFIGURATIONS) {
+                Metrics metrics = Metrics.average(configuration, dataset.getValue());
+                if (baseline == null) baseline = metrics;
+                report.append(String.format("%-24s %-12s %6d %9s %8.4f %8.4f %6.3f %6.2f %9.0f %8.1f %+8.1f%% %+8.1f%%%n",
+                        dataset.getKey(), configuration.name, metrics.cells, metrics.width + "x" + metrics.height,
+                        metrics.meanDistance, metrics.maxDistance, metrics.holeRatio, metrics.aspectRatio,
+                        metrics.buildMs, metrics.peakMemory / 1048576d,
+                        100d * (metrics.meanDistance / baseline.meanDistance - 1d),
+                        100d * (metrics.buildMs / baseline.buildMs - 1d)));
+                LOGGER.info("evaluated " + dataset.getKey() + " " + configuration.name);
+            }
+        }
+        report.append("dE is the OKLab distance between edge-adjacent cells, deltas are relative to the first configuration; ")
+                .append("every row averages ").append(REPEATS).append(" builds, peak MB is the heap used by the build ")
+                .append("on top of what was live before it.\n");
+        return report.toString();
+    }
+
+    // one line per entry: block id followed by the RGBA pixels of its texture, row by row
+    public static Path capture(Path directory, String name, List<BlockMapEntry> entries) throws IOException {
+        Files.createDirectories(directory);
+        Path capture = directory.resolve("capture-" + name + ".txt");
+        try (BufferedWriter writer = Files.newBufferedWriter(capture)) {
+            for (BlockMapEntry entry : entries) {
+                NativeImage image = entry.getImage();
+                writer.write(Registry.BLOCK.getId(entry.getBlocks().keySet().iterator().next()).toString());
+                writer.write(" " + image.getWidth() + " " + image.getHeight());
+                for (int y = 0; y < image.getHeight(); y++) {
+                    for (int x = 0; x < image.getWidth(); x++) {
+                        writer.write(" " + Integer.toHexString(image.getColor(x, y)));
+                    }
+                }
+                writer.newLine();
+            }
+        }
+        return capture;
+    }
+
+    private static List<BlockMapEntry> loadCapture(Path capture) throws IOException {
+        List<BlockMapEntry> entries = new ArrayList<>();
+        for (String line : Files.readAllLines(capture)) {
+            String[] fields = line.trim().split(" ");
+            if (fields.length < 3) continue;
+            int width = Integer.parseInt(fields[1]), height = Integer.parseInt(fields[2]);
+            int[] colors = new int[width * height];
+            for (int i = 0; i < colors.length; i++) {
+                colors[i] = Integer.parseUnsignedInt(fields[3 + i], 16);
+            }
+            // only the colors matter to the builder, so no block or texture is needed
+            entries.add(new BlockMapEntry(width, height, (x, y) -> colors[x + y * width]));
+        }
+        return entries;
+    }
+
+    // noisy flat textures, either uniformly colored or drawn around a fixed number of cluster centers
+    private static List<BlockMapEntry> syntheticEntries(int count, long seed, int clusters) {
+        Random random = new Random(seed);
+        int[][] centers = new int[clusters][];
+        for (int i = 0; i < clusters; i++) {
+            centers[i] = new int[]{random.nextInt(256), random.nextInt(256), random.nextInt(256)};
+        }
+        List<BlockMapEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int[] color = clusters > 0 ? centers[random.nextInt(clusters)] : null;
+            int r = color != null ? channel(color[0] + random.nextInt(41) - 20) : random.nextInt(256);
+            int g = color != null ? channel(color[1] + random.nextInt(41) - 20) : random.nextInt(256);
+            int b = color != null ? channel(color[2] + random.nextInt(41) - 20) : random.nextInt(256);
+            int[] colors = new int[16 * 16];
+            for (int pixel = 0; pixel < colors.length; pixel++) {
+                int noise = random.nextInt(21) - 10;
+                colors[pixel] = NativeImage.packColor(255, channel(b + noise), channel(g + noise), channel(r + noise));
+            }
+            entries.add(new BlockMapEntry(16, 16, (x, y) -> colors[x + y * 16]));
+        }
+        return entries;
+    }
+
+    private static int channel(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    private static class Configuration {
+        private final String name;
+        private final boolean perceptual;
+        private final BlockMapBuilder.Schedule schedule;
+        private final long refineBudgetMs;
+
+        private Configuration(String name, boolean perceptual, BlockMapBuilder.Schedule schedule, long refineBudgetMs) {
+            this.name = name;
+            this.perceptual = perceptual;
+            this.schedule = schedule;
+            this.refineBudgetMs = refineBudgetMs;
+        }
+    }
+
+    public static class Metrics {
+        public int width, height, cells;
+        public double meanDistance, maxDistance, holeRatio, aspectRatio, buildMs, peakMemory;
+
+        private static Metrics average(Configuration configuration, List<BlockMapEntry> entries) {
+            Metrics average = new Metrics();
+            for (int i = 0; i < REPEATS; i++) {
+                Metrics metrics = build(configuration, entries);
+                average.width = metrics.width;
+                average.height = metrics.height;
+                average.cells = metrics.cells;
+                average.meanDistance += metrics.meanDistance / REPEATS;
+                average.maxDistance += metrics.maxDistance / REPEATS;
+                average.holeRatio += metrics.holeRatio / REPEATS;
+                average.aspectRatio += metrics.aspectRatio / REPEATS;
+                average.buildMs += metrics.buildMs / REPEATS;
+                average.peakMemory = Math.max(average.peakMemory, metrics.peakMemory);
+            }
+            return average;
+        }
+
+        private static Metrics build(Configuration configuration, List<BlockMapEntry> entries) {
+            List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                    .filter(pool -> pool.getType() == MemoryType.HEAP).toList();
+            // what is live before the build is left out, so only the build's own allocations are counted
+            System.gc();
+            long before = heapPools.stream().mapToLong(pool -> pool.getUsage().getUsed()).sum();
+            heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+            long start = System.nanoTime();
+            BlockMapBuilder builder = new BlockMapBuilder(entries, false, configuration.perceptual, null, configuration.schedule);
+            builder.refine(configuration.refineBudgetMs, () -> false);
+            Metrics metrics = of(builder.grid(), builder.width(), builder.height());
+            metrics.buildMs = (System.nanoTime() - start) / 1e6d;
+            metrics.peakMemory = Math.max(0, heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum() - before);
+            return metrics;
+        }
+
+        // single pass over the columns, keeping only the previous column for the horizontal neighbours
+        public static Metrics of(Iterator<Iterator<BlockMapEntry>> grid, int width, int height) {
+            Metrics metrics = new Metrics();
+            metrics.width = width;
+            metrics.height = height;
+            Vec3d[] previousColumn = new Vec3d[height], column = new Vec3d[height];
+            double distanceSum = 0;
+            int pairs = 0;
+            while (grid.hasNext()) {
+                Iterator<BlockMapEntry> rows = grid.next();
+                for (int y = 0; y < height; y++) {
+                    BlockMapEntry entry = rows.next();
+                    column[y] = entry != null ? entry.averageOklab() : null;
+                    if (column[y] == null) continue;
+                    metrics.cells++;
+                    for (Vec3d neighbor : new Vec3d[]{y > 0 ? column[y - 1] : null, previousColumn[y]}) {
+                        if (neighbor != null) {
+                            double distance = column[y].distanceTo(neighbor);
+                            distanceSum += distance;
+                            metrics.maxDistance = Math.max(metrics.maxDistance, distance);
+                            pairs++;
+                        }
+                    }
+                }
+                Vec3d[] swap = previousColumn;
+                previousColumn = column;
+                column = swap;
+            }
+            metrics.meanDistance = pairs > 0 ? distanceSum / pairs : 0;
+            metrics.holeRatio = width * height > 0 ? 1d - (double) metrics.cells / (width * height) : 0;
+            metrics.aspectRatio = Math.min(width, height) > 0 ? (double) Math.max(width, height) / Math.min(width, height) : 0;
+            return metrics;
+        }
+    }
+}
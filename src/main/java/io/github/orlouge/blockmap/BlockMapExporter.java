@@ -0,0 +1,195 @@
+package io.github.orlouge.blockmap;
+
+import net.minecraft.client.texture.NativeImage;
+import net.minecraft.util.Util;
+import net.minecraft.util.math.Vec3d;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+public class BlockMapExporter {
+    private static final int TILE_SIZE = 256;
+    private final int cellSize, gridWidth, gridHeight, imageWidth, imageHeight;
+    private final Pixels[] grid;
+
+    // must be created on the render thread, the sprite pixels are copied out of the native images here
+    public BlockMapExporter(BlockMap blockMap, int cellSize) {
+        this.cellSize = cellSize;
+        this.gridWidth = blockMap.width;
+        this.gridHeight = blockMap.height;
+        this.imageWidth = gridWidth * cellSize;
+        this.imageHeight = gridHeight * cellSize;
+        this.grid = new Pixels[gridWidth * gridHeight];
+        Map<BlockMapEntry, Pixels> pixels = new HashMap<>();
+        for (BlockMap.Cell cell : blockMap.cells) {
+            grid[cell.cellX + cell.cellY * gridWidth] = pixels.computeIfAbsent(cell.entry, Pixels::new);
+        }
+    }
+
+    public CompletableFuture<Path> exportPng(Path file) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                Files.createDirectories(file.getParent());
+                try (PngWriter png = new PngWriter(new BufferedOutputStream(Files.newOutputStream(file)), imageWidth, imageHeight)) {
+                    byte[] scanline = new byte[imageWidth * 4 + 1];
+                    for (int y = 0; y < imageHeight; y++) {
+                        fillScanline(scanline, 0, y, imageWidth, 1);
+                        png.writeScanline(scanline);
+                    }
+                }
+                return file;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, Util.getIoWorkerExecutor());
+    }
+
+    // Deep Zoom image: <name>.dzi plus <name>_files/<level>/<column>_<row>.png
+    public CompletableFuture<Path> exportDeepZoom(Path directory, String name) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                int maxLevel = 0;
+                while ((1 << maxLevel) < Math.max(imageWidth, imageHeight)) maxLevel++;
+                byte[] scanline = new byte[TILE_SIZE * 4 + 1];
+                for (int level = maxLevel; level >= 0; level--) {
+                    int scale = 1 << (maxLevel - level);
+                    int levelWidth = (imageWidth + scale - 1) / scale, levelHeight = (imageHeight + scale - 1) / scale;
+                    Path levelDirectory = directory.resolve(name + "_files").resolve(Integer.toString(level));
+                    Files.createDirectories(levelDirectory);
+                    for (int tileY = 0; tileY * TILE_SIZE < levelHeight; tileY++) {
+                        for (int tileX = 0; tileX * TILE_SIZE < levelWidth; tileX++) {
+                            int tileWidth = Math.min(TILE_SIZE, levelWidth - tileX * TILE_SIZE);
+                            int tileHeight = Math.min(TILE_SIZE, levelHeight - tileY * TILE_SIZE);
+                            Path tile = levelDirectory.resolve(tileX + "_" + tileY + ".png");
+                            try (PngWriter png = new PngWriter(new BufferedOutputStream(Files.newOutputStream(tile)), tileWidth, tileHeight)) {
+                                for (int y = 0; y < tileHeight; y++) {
+                                    fillScanline(scanline, tileX * TILE_SIZE, tileY * TILE_SIZE + y, tileWidth, scale);
+                                    png.writeScanline(scanline, tileWidth * 4 + 1);
+                                }
+                            }
+                        }
+                    }
+                }
+                Path descriptor = directory.resolve(name + ".dzi");
+                Files.writeString(descriptor,
+                        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                        "<Image xmlns=\"http://schemas.microsoft.com/deepzoom/2008\" TileSize=\"" + TILE_SIZE + "\" Overlap=\"0\" Format=\"png\">\n" +
+                        "  <Size Width=\"" + imageWidth + "\" Height=\"" + imageHeight + "\"/>\n" +
+                        "</Image>\n"
+                );
+                return descriptor;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, Util.getIoWorkerExecutor());
+    }
+
+    private void fillScanline(byte[] scanline, int fromX, int y, int count, int scale) {
+        scanline[0] = 0;
+        for (int i = 0; i < count; i++) {
+            int color = pixel((fromX + i) * scale, y * scale, scale);
+            int offset = 1 + i * 4;
+            scanline[offset] = (byte) NativeImage.getRed(color);
+            scanline[offset + 1] = (byte) NativeImage.getGreen(color);
+            scanline[offset + 2] = (byte) NativeImage.getBlue(color);
+            scanline[offset + 3] = (byte) NativeImage.getAlpha(color);
+        }
+    }
+
+    private int pixel(int x, int y, int scale) {
+        if (x >= imageWidth || y >= imageHeight) return 0;
+        Pixels pixels = grid[x / cellSize + (y / cellSize) * gridWidth];
+        if (pixels == null) return 0;
+        // once a whole cell shrinks to a pixel or less, the average color is the better sample
+        if (scale >= cellSize) return pixels.average;
+        return pixels.colors[(y % cellSize) * pixels.height / cellSize * pixels.width + (x % cellSize) * pixels.width / cellSize];
+    }
+
+    private static class Pixels {
+        private final int width, height, average;
+        private final int[] colors;
+
+        private Pixels(BlockMapEntry entry) {
+            NativeImage image = entry.getImage();
+            this.width = image.getWidth();
+            this.height = image.getHeight();
+            this.colors = new int[width * height];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    colors[x + y * width] = image.getColor(x, y);
+                }
+            }
+            Vec3d average = entry.averageColor();
+            this.average = NativeImage.packColor(255, (int) (average.z * 255), (int) (average.y * 255), (int) (average.x * 255));
+        }
+    }
+
+    static class PngWriter implements Closeable {
+        private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+        private final DataOutputStream out;
+        private final Deflater deflater = new Deflater();
+        private final CRC32 crc = new CRC32();
+        private final byte[] buffer = new byte[1 << 16];
+
+        PngWriter(OutputStream out, int width, int height) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.out.write(SIGNATURE);
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream headerData = new DataOutputStream(header);
+            headerData.writeInt(width);
+            headerData.writeInt(height);
+            headerData.writeByte(8); // bit depth
+            headerData.writeByte(6); // RGBA
+            headerData.writeByte(0);
+            headerData.writeByte(0);
+            headerData.writeByte(0);
+            writeChunk("IHDR", header.toByteArray(), header.size());
+        }
+
+        // a scanline starts with its filter type byte
+        void writeScanline(byte[] scanline) throws IOException {
+            writeScanline(scanline, scanline.length);
+        }
+
+        void writeScanline(byte[] scanline, int length) throws IOException {
+            deflater.setInput(scanline, 0, length);
+            while (!deflater.needsInput()) {
+                int count = deflater.deflate(buffer);
+                if (count > 0) writeChunk("IDAT", buffer, count);
+            }
+        }
+
+        private void writeChunk(String type, byte[] data, int length) throws IOException {
+            byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+            out.writeInt(length);
+            out.write(typeBytes);
+            out.write(data, 0, length);
+            crc.reset();
+            crc.update(typeBytes);
+            crc.update(data, 0, length);
+            out.writeInt((int) crc.getValue());
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    if (count > 0) writeChunk("IDAT", buffer, count);
+                }
+                writeChunk("IEND", new byte[0], 0);
+            } finally {
+                deflater.end();
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.orlouge.blockmap;
+
+import net.minecraft.block.Block;
+import net.minecraft.entity.player.PlayerInventory;
+import net.minecraft.item.BlockItem;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.Items;
+import net.minecraft.text.Text;
+import net.minecraft.util.registry.Registry;
+
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+public class BlockMapFilter {
+    // sub-maps are cached by key, so two filters with the same key must select the same blocks
+    public final String key;
+    public final Text name;
+    private final Predicate<Block> predicate;
+
+    public BlockMapFilter(String key, Text name, Predicate<Block> predicate) {
+        this.key = key;
+        this.name = name;
+        this.predicate = predicate;
+    }
+
+    public boolean test(BlockMapEntry entry) {
+        return entry.getBlocks().keySet().stream().anyMatch(predicate);
+    }
+
+    public static BlockMapFilter namespace(String namespace) {
+        return new BlockMapFilter(
+                "namespace:" + namespace,
+                Text.of(namespace),
+                block -> Registry.BLOCK.getId(block).getNamespace().equals(namespace)
+        );
+    }
+
+    public static BlockMapFilter inventory(PlayerInventory inventory) {
+        Set<Block> blocks = new TreeSet<>((block1, block2) -> Registry.BLOCK.getId(block1).compareTo(Registry.BLOCK.getId(block2)));
+        for (int slot = 0; slot < inventory.size(); slot++) {
+            ItemStack stack = inventory.getStack(slot);
+            if (!stack.isEmpty() && stack.getItem() instanceof BlockItem) {
+                blocks.add(((BlockItem) stack.getItem()).getBlock());
+            }
+        }
+        StringBuilder key = new StringBuilder("inventory:");
+        for (Block block : blocks) {
+            key.append(Registry.BLOCK.getId(block)).append(',');
+        }
+        return new BlockMapFilter(key.toString(), Text.of("Inventory"), blocks::contains);
+    }
+
+    // approximation: the block has an item form and can be broken
+    public static BlockMapFilter obtainable() {
+        return new BlockMapFilter(
+                "obtainable",
+                Text.of("Obtainable"),
+                block -> block.asItem() != Items.AIR && block.getHardness() >= 0
+        );
+    }
+}
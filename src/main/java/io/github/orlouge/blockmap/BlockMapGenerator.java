@@ -0,0 +1,292 @@
+package io.github.orlouge.blockmap;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.Direction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.IntBuffer;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+// Headless entry point computing a BlockMapLayout straight from resource packs, so that modpacks can ship
+// prebuilt maps (see BlockMapManager.loadPrebuilt). Packs are directories or zips (the client jar and mod jars
+// are zips too), zips are opened as NIO file systems and only the files that are needed get read.
+//
+// There is no registry and no baked model here: blocks are the blockstate files, and a block is kept when the
+// model of its default variant is a single full cube with opaque 16x16+ face textures, which is close to what the
+// mod keeps in game (see textureEntry). Variant rotations do not matter, cells name blocks and not faces.
+//
+// Which variant is the default state is only known to the game (Block.getDefaultState). A block is resolved when
+// it has a single variant, or when all of its variants use the same textures (rotations of one model, logs...).
+// Blocks whose variants disagree, like furnaces (lit or not), are left out and listed as unresolved in the layout.
+public class BlockMapGenerator {
+    private static final String USAGE = "usage: BlockMapGenerator [--dominant] [--perceptual] [--refine <ms>] --output <file> <pack>...\n" +
+            "packs are directories or zips, later packs override earlier ones, so the client jar goes first";
+    private static final Logger LOGGER = LoggerFactory.getLogger("blockmap-generator");
+    private static final int MAX_DEPTH = 32;
+    private final List<Path> roots;
+    private final Map<String, Optional<JsonObject>> models = new HashMap<>();
+    private final Map<String, Optional<BlockMapEntry>> textureEntries = new HashMap<>();
+    private final Map<Map.Entry<Integer, IntBuffer>, BlockMapEntry> pixelEntries = new HashMap<>();
+    private final Map<BlockMapEntry, SortedSet<String>> entryBlocks = new LinkedHashMap<>();
+    private final SortedSet<String> unresolved = new TreeSet<>();
+
+    // roots in priority order, the first one containing a file wins
+    public BlockMapGenerator(List<Path> roots) {
+        this.roots = roots;
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean dominant = false, perceptual = false;
+        long refineBudgetMs = 0;
+        Path output = null;
+        List<Path> packs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--dominant" -> dominant = true;
+                case "--perceptual" -> perceptual = true;
+                case "--refine" -> refineBudgetMs = Long.parseLong(args[++i]);
+                case "--output" -> output = Path.of(args[++i]);
+                default -> packs.add(Path.of(args[i]));
+            }
+        }
+        if (output == null || packs.isEmpty()) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        List<FileSystem> zips = new ArrayList<>();
+        List<Path> roots = new ArrayList<>();
+        try {
+            for (Path pack : packs) {
+                if (Files.isDirectory(pack)) {
+                    roots.add(pack);
+                } else {
+                    FileSystem zip = FileSystems.newFileSystem(pack);
+                    zips.add(zip);
+                    roots.add(zip.getPath("/"));
+                }
+            }
+            Collections.reverse(roots);
+
+            long start = System.nanoTime();
+            BlockMapGenerator generator = new BlockMapGenerator(roots);
+            List<BlockMapEntry> entries = generator.collectEntries();
+            long collected = System.nanoTime();
+            BlockMapBuilder builder = new BlockMapBuilder(entries, dominant, perceptual);
+            builder.refine(refineBudgetMs, () -> false);
+            BlockMapLayout layout = generator.layout(builder, dominant, perceptual);
+            layout.write(output);
+            System.out.printf("%d entries from %d packs read in %d ms, %dx%d layout built in %d ms, written to %s%n",
+                    entries.size(), packs.size(), (collected - start) / 1000000, layout.width, layout.height,
+                    (System.nanoTime() - collected) / 1000000, output);
+        } finally {
+            for (FileSystem zip : zips) {
+                zip.close();
+            }
+        }
+    }
+
+    public List<BlockMapEntry> collectEntries() throws IOException {
+        for (String block : blockIds()) {
+            try {
+                addBlock(block);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Skipping " + block + ": " + e);
+            }
+        }
+        List<BlockMapEntry> entries = new ArrayList<>(entryBlocks.keySet());
+        // same order as BlockMapManager.getEntries, the builder breaks ties by input order
+        entries.sort(Comparator.comparing(entry -> entry.averageColor().length()));
+        return entries;
+    }
+
+    public BlockMapLayout layout(BlockMapBuilder builder, boolean dominant, boolean perceptual) {
+        List<BlockMapLayout.Cell> cells = new ArrayList<>(entryBlocks.size());
+        Iterator<Iterator<BlockMapEntry>> columns = builder.grid();
+        for (int x = 0; x < builder.width(); x++) {
+            Iterator<BlockMapEntry> column = columns.next();
+            for (int y = 0; y < builder.height(); y++) {
+                BlockMapEntry entry = column.next();
+                if (entry != null) {
+                    cells.add(new BlockMapLayout.Cell(x, y, BlockMapLayout.textureKey(entry), List.copyOf(entryBlocks.get(entry))));
+                }
+            }
+        }
+        return new BlockMapLayout(dominant, perceptual, builder.width(), builder.height(), cells, List.copyOf(unresolved));
+    }
+
+    private SortedSet<String> blockIds() throws IOException {
+        SortedSet<String> blocks = new TreeSet<>();
+        for (Path root : roots) {
+            Path assets = root.resolve("assets");
+            if (!Files.isDirectory(assets)) continue;
+            try (Stream<Path> namespaces = Files.list(assets)) {
+                for (Path namespace : (Iterable<Path>) namespaces::iterator) {
+                    Path blockstates = namespace.resolve("blockstates");
+                    if (!Files.isDirectory(blockstates)) continue;
+                    try (Stream<Path> files = Files.list(blockstates)) {
+                        for (Path file : (Iterable<Path>) files::iterator) {
+                            String name = file.getFileName().toString();
+                            if (name.endsWith(".json")) {
+                                blocks.add(fileName(namespace) + ":" + name.substring(0, name.length() - 5));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return blocks;
+    }
+
+    private void addBlock(String block) throws IOException {
+        Identifier id = new Identifier(block);
+        JsonObject blockstate = readJson("assets/" + id.getNamespace() + "/blockstates/" + id.getPath() + ".json").orElse(null);
+        if (blockstate == null || !blockstate.has("variants")) {
+            // multipart blocks are fences, walls and the like
+            return;
+        }
+        JsonObject variants = blockstate.getAsJsonObject("variants");
+        if (variants.keySet().isEmpty()) return;
+        Set<String> textures = null;
+        for (String key : variants.has("") ? Set.of("") : variants.keySet()) {
+            JsonElement variant = variants.get(key);
+            if (variant.isJsonArray()) variant = variant.getAsJsonArray().get(0);
+            Map<Direction, String> faces = faceTextures(variant.getAsJsonObject().get("model").getAsString());
+            // other models count as no textures, so a block that is a full cube in some states only is unresolved
+            Set<String> variantTextures = faces == null ? Set.of() : new TreeSet<>(faces.values());
+            if (textures != null && !textures.equals(variantTextures)) {
+                unresolved.add(id.toString());
+                return;
+            }
+            textures = variantTextures;
+        }
+
+        for (String texture : textures) {
+            BlockMapEntry entry = textureEntry(texture);
+            if (entry != null) {
+                entryBlocks.computeIfAbsent(entry, e -> new TreeSet<>()).add(id.toString());
+            }
+        }
+    }
+
+    // face textures of a model made of one full cube, following the parent chain; null for any other model
+    private Map<Direction, String> faceTextures(String modelId) throws IOException {
+        Map<String, String> textures = new HashMap<>();
+        JsonElement elements = null;
+        String current = modelId;
+        for (int depth = 0; current != null; depth++) {
+            Identifier id = new Identifier(current);
+            if (depth >= MAX_DEPTH || id.getPath().startsWith("builtin/")) return null;
+            Optional<JsonObject> cached = models.get(id.toString());
+            if (cached == null) {
+                cached = readJson("assets/" + id.getNamespace() + "/models/" + id.getPath() + ".json");
+                models.put(id.toString(), cached);
+            }
+            JsonObject model = cached.orElse(null);
+            if (model == null) return null;
+            if (model.has("textures")) {
+                for (Map.Entry<String, JsonElement> texture : model.getAsJsonObject("textures").entrySet()) {
+                    textures.putIfAbsent(texture.getKey(), texture.getValue().getAsString());
+                }
+            }
+            if (elements == null && model.has("elements")) {
+                elements = model.get("elements");
+            }
+            current = model.has("parent") ? model.get("parent").getAsString() : null;
+        }
+        if (elements == null || elements.getAsJsonArray().size() != 1) return null;
+
+        JsonObject element = elements.getAsJsonArray().get(0).getAsJsonObject();
+        for (String corner : new String[]{"from", "to"}) {
+            for (JsonElement coordinate : element.getAsJsonArray(corner)) {
+                if (coordinate.getAsDouble() != (corner.equals("from") ? 0 : 16)) return null;
+            }
+        }
+        Map<Direction, String> faces = new EnumMap<>(Direction.class);
+        if (!element.has("faces")) return faces;
+        for (Map.Entry<String, JsonElement> face : element.getAsJsonObject("faces").entrySet()) {
+            Direction direction = Direction.byName(face.getKey());
+            String texture = face.getValue().getAsJsonObject().get("texture").getAsString();
+            for (int depth = 0; texture != null && texture.startsWith("#") && depth < MAX_DEPTH; depth++) {
+                texture = textures.get(texture.substring(1));
+            }
+            if (direction != null && texture != null && !texture.startsWith("#")) {
+                faces.put(direction, texture);
+            }
+        }
+        return faces;
+    }
+
+    // entries are shared by every face using the texture, and by textures with the same pixels
+    private BlockMapEntry textureEntry(String texture) throws IOException {
+        Identifier id = new Identifier(texture);
+        Optional<BlockMapEntry> cached = textureEntries.get(id.toString());
+        if (cached != null) return cached.orElse(null);
+
+        BlockMapEntry entry = null;
+        Path file = find("assets/" + id.getNamespace() + "/textures/" + id.getPath() + ".png");
+        BufferedImage image = null;
+        if (file != null) {
+            try (InputStream in = Files.newInputStream(file)) {
+                image = ImageIO.read(in);
+            }
+        }
+        if (image != null && image.getWidth() >= 16 && image.getHeight() >= 16) {
+            int width = image.getWidth(), height = image.getHeight();
+            int[] colors = image.getRGB(0, 0, width, height, null, 0, width);
+            boolean opaque = true;
+            for (int i = 0; i < colors.length; i++) {
+                int argb = colors[i];
+                opaque &= (argb >>> 24) == 0xFF;
+                // ARGB to the ABGR order of NativeImage
+                colors[i] = (argb & 0xFF00FF00) | ((argb >> 16) & 0xFF) | ((argb & 0xFF) << 16);
+            }
+            // Stands in for BlockState.isOpaque and hasSidedTransparency, which need the block instance: the game
+            // trusts what the block declares, so a block declared non-opaque or with sided transparency is kept here
+            // when its textures happen to be opaque. BlockMapManager.loadPrebuilt tolerates that.
+            if (opaque) {
+                entry = pixelEntries.computeIfAbsent(Map.entry(width, IntBuffer.wrap(colors)),
+                        key -> new BlockMapEntry(width, height, (x, y) -> colors[x + y * width]));
+            }
+        }
+        textureEntries.put(id.toString(), Optional.ofNullable(entry));
+        return entry;
+    }
+
+    private Optional<JsonObject> readJson(String path) throws IOException {
+        Path file = find(path);
+        if (file == null) return Optional.empty();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            JsonElement json = JsonParser.parseReader(reader);
+            return json.isJsonObject() ? Optional.of(json.getAsJsonObject()) : Optional.empty();
+        }
+    }
+
+    private Path find(String path) {
+        for (Path root : roots) {
+            Path file = root.resolve(path);
+            if (Files.isRegularFile(file)) return file;
+        }
+        return null;
+    }
+
+    private static String fileName(Path path) {
+        // zip file system paths keep the trailing slash of directories
+        String name = path.getFileName().toString();
+        return name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+    }
+}
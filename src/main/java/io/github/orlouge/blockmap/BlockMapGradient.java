@@ -0,0 +1,270 @@
+package io.github.orlouge.blockmap;
+
+import net.minecraft.util.math.Vec3d;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+// k-nearest-neighbour graph over the OKLab colors of the cells, used to find gradients between two blocks.
+// OKLab rather than the layout features because the layout flattens lightness, which matters a lot in a gradient.
+public class BlockMapGradient {
+    private static final int NEIGHBORS = 8, EXPLORED = 256, MAX_BUCKETS = 64, SCANNED = 1 << 17, EXPANDED = 1 << 13;
+    private final double[] colors;
+    private final int[][] neighbors;
+    private final double[] min;
+    private final double bucketSize;
+    private final int[] buckets = new int[3], bucketStarts, bucketCells;
+
+    public BlockMapGradient(List<BlockMap.Cell> cells, boolean dominant) {
+        int count = cells.size();
+        this.colors = new double[count * 3];
+        for (int i = 0; i < count; i++) {
+            BlockMapEntry entry = cells.get(i).entry;
+            Vec3d color = dominant && entry.hasDominant ? entry.dominantOklab() : entry.averageOklab();
+            colors[i * 3] = color.x;
+            colors[i * 3 + 1] = color.y;
+            colors[i * 3 + 2] = color.z;
+        }
+
+        // Cells are bucketed in a uniform grid of about two cells per bucket, the search around each cell visits
+        // shells of buckets until the next shell is farther than the k-th closest cell found so far.
+        double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int i = 0; i < count * 3; i++) {
+            min[i % 3] = Math.min(min[i % 3], colors[i]);
+            max[i % 3] = Math.max(max[i % 3], colors[i]);
+        }
+        double volume = (max[0] - min[0]) * (max[1] - min[1]) * (max[2] - min[2]);
+        double extent = Math.max(max[0] - min[0], Math.max(max[1] - min[1], max[2] - min[2]));
+        // at most MAX_BUCKETS along an axis, for flat color sets where the volume says little
+        this.bucketSize = Math.max(1e-6, Math.max(extent / MAX_BUCKETS, Math.cbrt(volume * 2 / Math.max(1, count))));
+        this.min = min;
+        for (int axis = 0; axis < 3; axis++) {
+            this.buckets[axis] = count == 0 ? 1 : (int) ((max[axis] - min[axis]) / bucketSize) + 1;
+        }
+        int bucketCount = this.buckets[0] * this.buckets[1] * this.buckets[2];
+        this.bucketStarts = new int[bucketCount + 1];
+        this.bucketCells = new int[count];
+        for (int i = 0; i < count; i++) {
+            bucketStarts[bucket(i) + 1]++;
+        }
+        for (int b = 0; b < bucketCount; b++) {
+            bucketStarts[b + 1] += bucketStarts[b];
+        }
+        int[] filled = Arrays.copyOf(bucketStarts, bucketCount);
+        for (int i = 0; i < count; i++) {
+            bucketCells[filled[bucket(i)]++] = i;
+        }
+        int[][] nearest = new int[count][];
+        IntStream.range(0, count).parallel().forEach(i -> nearest[i] = nearest(i));
+
+        // the graph is made undirected, so that outliers can be reached from their own neighbours
+        int[] degrees = new int[count];
+        for (int i = 0; i < count; i++) {
+            for (int j : nearest[i]) {
+                degrees[i]++;
+                degrees[j]++;
+            }
+        }
+        this.neighbors = new int[count][];
+        for (int i = 0; i < count; i++) {
+            neighbors[i] = new int[degrees[i]];
+            degrees[i] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            for (int j : nearest[i]) {
+                neighbors[i][degrees[i]++] = j;
+                neighbors[j][degrees[j]++] = i;
+            }
+        }
+    }
+
+    private int bucketCoordinate(int cell, int axis) {
+        return Math.max(0, Math.min(buckets[axis] - 1, (int) ((colors[cell * 3 + axis] - min[axis]) / bucketSize)));
+    }
+
+    private int bucket(int cell) {
+        return (bucketCoordinate(cell, 0) * buckets[1] + bucketCoordinate(cell, 1)) * buckets[2] + bucketCoordinate(cell, 2);
+    }
+
+    private int[] nearest(int cell) {
+        int found = 0;
+        int[] nearest = new int[Math.min(NEIGHBORS, colors.length / 3 - 1)];
+        double[] distances = new double[nearest.length];
+        if (nearest.length == 0) return nearest;
+        int bx = bucketCoordinate(cell, 0), by = bucketCoordinate(cell, 1), bz = bucketCoordinate(cell, 2);
+        int maxRadius = Math.max(buckets[0], Math.max(buckets[1], buckets[2]));
+        for (int radius = 0; radius < maxRadius; radius++) {
+            // every cell outside of the shells visited so far is at least this far
+            double reach = radius > 0 ? (radius - 1) * bucketSize : 0;
+            if (found == nearest.length && reach * reach >= distances[found - 1]) {
+                break;
+            }
+            for (int x = Math.max(0, bx - radius); x <= Math.min(buckets[0] - 1, bx + radius); x++) {
+                for (int y = Math.max(0, by - radius); y <= Math.min(buckets[1] - 1, by + radius); y++) {
+                    boolean inside = Math.abs(x - bx) < radius && Math.abs(y - by) < radius;
+                    // only the two faces of the shell along z when x and y are inside it
+                    int zStep = inside ? 2 * radius : 1;
+                    for (int z = bz - radius; z <= bz + radius; z += Math.max(1, zStep)) {
+                        if (z < 0 || z >= buckets[2]) continue;
+                        int bucket = (x * buckets[1] + y) * buckets[2] + z;
+                        for (int i = bucketStarts[bucket]; i < bucketStarts[bucket + 1]; i++) {
+                            int other = bucketCells[i];
+                            if (other == cell) continue;
+                            double distance = squaredDistance(cell, other);
+                            if (found < nearest.length || distance < distances[found - 1]) {
+                                // insertion into the sorted arrays, dropping the farthest one when they are full
+                                int j = found < nearest.length ? found++ : found - 1;
+                                for (; j > 0 && distances[j - 1] > distance; j--) {
+                                    distances[j] = distances[j - 1];
+                                    nearest[j] = nearest[j - 1];
+                                }
+                                distances[j] = distance;
+                                nearest[j] = other;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(nearest, found);
+    }
+
+    // Cell indices of a gradient of at most the given number of steps, both ends included. Each step is the closest
+    // cell not used yet to its evenly spaced color between the two ends. Consecutive targets are close, so that cell
+    // is searched by a short best-first walk on the graph from the previous step instead of over all the cells.
+    public int[] gradient(int from, int to, int steps) {
+        return gradient(from, to, steps, new BitSet());
+    }
+
+    // Hidden cells are walked through but never picked, so that a sub-map can search the graph of the whole map.
+    // The walks go longer when few cells can be picked, and when these are few enough they are all compared instead.
+    // Both are bounded per query, by SCANNED distances for the comparisons and EXPANDED cells for the walks, so that a
+    // query takes a few milliseconds at most whatever the filter; a step whose walk finds nothing is left out.
+    public int[] gradient(int from, int to, int steps, BitSet hidden) {
+        if (from == to) {
+            return new int[]{from};
+        }
+        steps = Math.max(2, steps);
+        int count = colors.length / 3;
+        int selectable = count - hidden.cardinality();
+        boolean scan = (long) selectable * Math.max(1, steps - 2) <= SCANNED;
+        int explored = (int) Math.min(Math.min(count, EXPANDED / Math.max(1, steps - 2)), (long) EXPLORED * count / Math.max(1, selectable));
+        int[] gradient = new int[steps];
+        BitSet used = (BitSet) hidden.clone();
+        used.set(from);
+        used.set(to);
+        Walk walk = scan ? null : new Walk(count);
+        gradient[0] = from;
+        int length = 1;
+        for (int step = 1; step < steps - 1; step++) {
+            double t = (double) step / (steps - 1);
+            double[] target = new double[3];
+            for (int i = 0; i < 3; i++) {
+                target[i] = colors[from * 3 + i] + t * (colors[to * 3 + i] - colors[from * 3 + i]);
+            }
+            int next = scan
+                    ? nearestUnused(target, used)
+                    : walk.nearestUnused(target, gradient[length - 1], used, explored);
+            if (next < 0) continue;
+            used.set(next);
+            gradient[length++] = next;
+        }
+        gradient[length++] = to;
+        return Arrays.copyOf(gradient, length);
+    }
+
+    private int nearestUnused(double[] target, BitSet used) {
+        int best = -1;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int cell = used.nextClearBit(0); cell < colors.length / 3; cell = used.nextClearBit(cell + 1)) {
+            double distance = squaredDistance(cell, target);
+            if (distance < bestDistance) {
+                best = cell;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    // Best-first walk state of one query: a binary heap of cells by distance to the target, and the walk each cell was
+    // last visited in, so that nothing is cleared between the steps.
+    private class Walk {
+        private final int[] visited;
+        private int walks = 0, size = 0;
+        private int[] heapCells = new int[64];
+        private double[] heapDistances = new double[64];
+
+        private Walk(int count) {
+            this.visited = new int[count];
+        }
+
+        private int nearestUnused(double[] target, int start, BitSet used, int maxExplored) {
+            walks++;
+            size = 0;
+            push(start, squaredDistance(start, target));
+            visited[start] = walks;
+            int best = -1;
+            double bestDistance = Double.POSITIVE_INFINITY;
+            for (int explored = 0; explored < maxExplored && size > 0; explored++) {
+                double distance = heapDistances[0];
+                int cell = pop();
+                if (!used.get(cell) && distance < bestDistance) {
+                    best = cell;
+                    bestDistance = distance;
+                }
+                for (int neighbor : neighbors[cell]) {
+                    if (visited[neighbor] != walks) {
+                        visited[neighbor] = walks;
+                        push(neighbor, squaredDistance(neighbor, target));
+                    }
+                }
+            }
+            return best;
+        }
+
+        private void push(int cell, double distance) {
+            if (size == heapCells.length) {
+                heapCells = Arrays.copyOf(heapCells, size * 2);
+                heapDistances = Arrays.copyOf(heapDistances, size * 2);
+            }
+            int i = size++;
+            for (int parent = (i - 1) / 2; i > 0 && heapDistances[parent] > distance; i = parent, parent = (i - 1) / 2) {
+                heapCells[i] = heapCells[parent];
+                heapDistances[i] = heapDistances[parent];
+            }
+            heapCells[i] = cell;
+            heapDistances[i] = distance;
+        }
+
+        private int pop() {
+            int top = heapCells[0];
+            int cell = heapCells[--size];
+            double distance = heapDistances[size];
+            int i = 0;
+            for (int child = 1; child < size; i = child, child = 2 * i + 1) {
+                if (child + 1 < size && heapDistances[child + 1] < heapDistances[child]) child++;
+                if (heapDistances[child] >= distance) break;
+                heapCells[i] = heapCells[child];
+                heapDistances[i] = heapDistances[child];
+            }
+            heapCells[i] = cell;
+            heapDistances[i] = distance;
+            return top;
+        }
+    }
+
+    private double squaredDistance(int cell, int other) {
+        double dx = colors[cell * 3] - colors[other * 3];
+        double dy = colors[cell * 3 + 1] - colors[other * 3 + 1];
+        double dz = colors[cell * 3 + 2] - colors[other * 3 + 2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private double squaredDistance(int cell, double[] target) {
+        double dx = colors[cell * 3] - target[0];
+        double dy = colors[cell * 3 + 1] - target[1];
+        double dz = colors[cell * 3 + 2] - target[2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+}
@@ -0,0 +1,112 @@
+package io.github.orlouge.blockmap;
+
+import net.minecraft.util.math.Vec3d;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Precomputed placement of the blocks, written by BlockMapGenerator and loaded by the mod instead of building.
+// Text format:
+//   blockmap-layout 2 <average|dominant> <srgb|perceptual>
+//   size <width> <height>
+//   unresolved <block id>...
+//   <x> <y> <texture> <block id> <block id>...
+// where the texture is the average color of the cell's texture as #rrggbb. Faces are not named, since the generator
+// and the game do not see the same faces: the textures of one block tell apart by their colors instead. Unresolved
+// blocks are the ones the generator could not tell the default state of (see BlockMapGenerator), they have no cell.
+public class BlockMapLayout {
+    private static final String HEADER = "blockmap-layout 2";
+    public final boolean dominant, perceptual;
+    public final int width, height;
+    public final List<Cell> cells;
+    public final List<String> unresolved;
+
+    public BlockMapLayout(boolean dominant, boolean perceptual, int width, int height, List<Cell> cells, List<String> unresolved) {
+        this.dominant = dominant;
+        this.perceptual = perceptual;
+        this.width = width;
+        this.height = height;
+        this.cells = cells;
+        this.unresolved = unresolved;
+    }
+
+    public static String fileName(boolean dominant) {
+        return dominant ? "layout-dominant.txt" : "layout-average.txt";
+    }
+
+    public static String textureKey(BlockMapEntry entry) {
+        Vec3d color = entry.averageColor();
+        return String.format("#%02x%02x%02x",
+                Math.round(color.x * 255), Math.round(color.y * 255), Math.round(color.z * 255));
+    }
+
+    public static BlockMapLayout read(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String[] header = reader.readLine().split(" ");
+            if (header.length != 4 || !(header[0] + " " + header[1]).equals(HEADER)) {
+                throw new IOException("Not a block map layout, or one from another version, generate it again: " + file);
+            }
+            String[] size = reader.readLine().split(" ");
+            if (size.length != 3 || !size[0].equals("size")) {
+                throw new IOException("Missing layout size: " + file);
+            }
+            List<Cell> cells = new ArrayList<>();
+            List<String> unresolved = new ArrayList<>();
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String[] fields = line.trim().split(" ");
+                if (fields[0].equals("unresolved")) {
+                    unresolved.addAll(Arrays.asList(fields).subList(1, fields.length));
+                    continue;
+                }
+                if (fields.length < 4) continue;
+                cells.add(new Cell(
+                        Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), fields[2],
+                        Arrays.asList(fields).subList(3, fields.length)
+                ));
+            }
+            return new BlockMapLayout(
+                    header[2].equals("dominant"), header[3].equals("perceptual"),
+                    Integer.parseInt(size[1]), Integer.parseInt(size[2]), cells, unresolved
+            );
+        }
+    }
+
+    public void write(Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write(HEADER + " " + (dominant ? "dominant" : "average") + " " + (perceptual ? "perceptual" : "srgb"));
+            writer.newLine();
+            writer.write("size " + width + " " + height);
+            writer.newLine();
+            if (!unresolved.isEmpty()) {
+                writer.write("unresolved " + String.join(" ", unresolved));
+                writer.newLine();
+            }
+            for (Cell cell : cells) {
+                writer.write(cell.x + " " + cell.y + " " + cell.texture + " " + String.join(" ", cell.blocks));
+                writer.newLine();
+            }
+        }
+    }
+
+    public static class Cell {
+        public final int x, y;
+        public final String texture;
+        public final List<String> blocks;
+
+        public Cell(int x, int y, String texture, List<String> blocks) {
+            this.x = x;
+            this.y = y;
+            this.texture = texture;
+            this.blocks = blocks;
+        }
+    }
+}
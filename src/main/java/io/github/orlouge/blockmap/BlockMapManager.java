@@ -6,33 +6,221 @@ import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.render.model.BakedModel;
 import net.minecraft.client.render.model.BakedModelManager;
 import net.minecraft.client.render.model.BakedQuad;
+import net.minecraft.client.render.model.MultipartBakedModel;
 import net.minecraft.client.texture.NativeImage;
 import net.minecraft.client.texture.Sprite;
+import net.minecraft.util.Util;
 import net.minecraft.util.math.Direction;
 import net.minecraft.util.registry.Registry;
 import net.minecraft.util.registry.RegistryKey;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 public class BlockMapManager {
     private static LinkedList<BlockMapEntry> entries = null;
     private static BlockMap dominantBlockMap = null, averageBlockMap = null;
+    private static CompletableFuture<BlockMap> dominantBuild = null, averageBuild = null;
+    // each build publishes its previews in its own reference, so that stale builds cannot overwrite them
+    private static AtomicReference<BlockMapBuilder.Snapshot> dominantPreview = new AtomicReference<>(), averagePreview = new AtomicReference<>();
+    private static boolean perceptual = false, allStates = false;
+    private static long refineBudgetMs = 0;
+    private static AtomicBoolean buildsCancelled = new AtomicBoolean(false);
+    private static final Map<BakedModel, Sprite[]> modelSprites = new HashMap<>();
+    private static final Map<Sprite, BlockMapEntry> spriteEntries = new HashMap<>();
+
+    public static void setAllStates(boolean allStates) {
+        if (BlockMapManager.allStates != allStates) {
+            BlockMapManager.allStates = allStates;
+            entries = null;
+            resetBlockMaps();
+        }
+    }
+
+    public static boolean isAllStates() {
+        return allStates;
+    }
+
+    // 0 disables the refinement pass after stitching
+    public static void setRefineBudgetMs(long refineBudgetMs) {
+        if (BlockMapManager.refineBudgetMs != refineBudgetMs) {
+            BlockMapManager.refineBudgetMs = refineBudgetMs;
+            resetBlockMaps();
+        }
+    }
+
+    public static long getRefineBudgetMs() {
+        return refineBudgetMs;
+    }
+
+    public static void setPerceptual(boolean perceptual) {
+        if (BlockMapManager.perceptual != perceptual) {
+            BlockMapManager.perceptual = perceptual;
+            resetBlockMaps();
+        }
+    }
+
+    public static boolean isPerceptual() {
+        return perceptual;
+    }
+
+    private static void resetBlockMaps() {
+        // running builds are stale now, cut their refinement short
+        buildsCancelled.set(true);
+        buildsCancelled = new AtomicBoolean(false);
+        dominantBlockMap = null;
+        averageBlockMap = null;
+        dominantBuild = null;
+        averageBuild = null;
+    }
 
     public static BlockMap getBlockMap(boolean dominant) {
         if (dominant) {
+            if (dominantBlockMap == null && dominantBuild != null) {
+                try {
+                    return dominantBuild.join();
+                } catch (CompletionException e) {
+                    // already logged, built again below
+                    dominantBuild = null;
+                }
+            }
             if (dominantBlockMap == null) {
-                dominantBlockMap = new BlockMap(getEntries(), true);
+                List<BlockMapEntry> entries = getEntries();
+                dominantBlockMap = loadPrebuilt(entries, true, perceptual, allStates);
+                if (dominantBlockMap == null) {
+                    dominantBlockMap = new BlockMap(entries, true, perceptual, null, refineBudgetMs, () -> false);
+                }
             }
             return dominantBlockMap;
         } else {
+            if (averageBlockMap == null && averageBuild != null) {
+                try {
+                    return averageBuild.join();
+                } catch (CompletionException e) {
+                    // already logged, built again below
+                    averageBuild = null;
+                }
+            }
             if (averageBlockMap == null) {
-                averageBlockMap = new BlockMap(getEntries(), false);
+                List<BlockMapEntry> entries = getEntries();
+                averageBlockMap = loadPrebuilt(entries, false, perceptual, allStates);
+                if (averageBlockMap == null) {
+                    averageBlockMap = new BlockMap(entries, false, perceptual, null, refineBudgetMs, () -> false);
+                }
             }
             return averageBlockMap;
         }
     }
 
+    public static CompletableFuture<BlockMap> getBlockMapAsync(boolean dominant) {
+        CompletableFuture<BlockMap> build = dominant ? dominantBuild : averageBuild;
+        if (build == null) {
+            BlockMap blockMap = dominant ? dominantBlockMap : averageBlockMap;
+            if (blockMap != null) {
+                build = CompletableFuture.completedFuture(blockMap);
+            } else {
+                // entries touch textures and models, so they are collected here before going off-thread
+                List<BlockMapEntry> entries = getEntries();
+                boolean perceptual = BlockMapManager.perceptual, allStates = BlockMapManager.allStates;
+                long refineBudgetMs = BlockMapManager.refineBudgetMs;
+                AtomicBoolean cancelled = buildsCancelled;
+                AtomicReference<BlockMapBuilder.Snapshot> preview = new AtomicReference<>();
+                if (dominant) {
+                    dominantPreview = preview;
+                } else {
+                    averagePreview = preview;
+                }
+                // a prebuilt layout is loaded off-thread too, placing the entries is quick but the gradient graph is not
+                build = CompletableFuture.supplyAsync(() -> {
+                    BlockMap prebuilt = loadPrebuilt(entries, dominant, perceptual, allStates);
+                    return prebuilt != null
+                            ? prebuilt
+                            : new BlockMap(entries, dominant, perceptual, preview::set, refineBudgetMs, cancelled::get);
+                }, Util.getMainWorkerExecutor());
+                CompletableFuture<BlockMap> currentBuild = build;
+                build.whenCompleteAsync((result, e) -> {
+                    if (e != null) {
+                        BlockMapClientMod.LOGGER.error("Could not build the block map", e);
+                    }
+                    if (currentBuild != (dominant ? dominantBuild : averageBuild)) {
+                        return;
+                    }
+                    if (e != null) {
+                        // dropped, so that opening the map again starts a new build
+                        if (dominant) {
+                            dominantBuild = null;
+                        } else {
+                            averageBuild = null;
+                        }
+                    } else {
+                        if (dominant) {
+                            dominantBlockMap = result;
+                        } else {
+                            averageBlockMap = result;
+                        }
+                    }
+                }, MinecraftClient.getInstance());
+            }
+            if (dominant) {
+                dominantBuild = build;
+            } else {
+                averageBuild = build;
+            }
+        }
+        return build;
+    }
+
+    // A layout generated offline (see BlockMapGenerator) and placed in <game directory>/blockmaps skips the build,
+    // as long as it was made for the current color space. Placing the entries only takes a lookup per cell.
+    private static BlockMap loadPrebuilt(List<BlockMapEntry> entries, boolean dominant, boolean perceptual, boolean allStates) {
+        Path file = MinecraftClient.getInstance().runDirectory.toPath().resolve("blockmaps").resolve(BlockMapLayout.fileName(dominant));
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            BlockMapLayout layout = BlockMapLayout.read(file);
+            // layouts only place default states (and not the unresolved blocks), the other states would all end up
+            // appended below the layout
+            if (layout.dominant != dominant || layout.perceptual != perceptual || allStates) {
+                BlockMapClientMod.LOGGER.info("Ignoring " + file + ", it was generated with other settings");
+                return null;
+            }
+            // The generator only sees texture alpha where the game asks the block (BlockState.isOpaque, sided
+            // transparency), so a few blocks are expected on one side only: the ones missing from the layout are
+            // appended below it and its cells without a block stay empty. Many of them mean the layout is stale.
+            BlockMap blockMap = new BlockMap(layout, entries);
+            long appended = blockMap.cells.stream().filter(cell -> cell.cellY >= layout.height).count();
+            BlockMapClientMod.LOGGER.info("Loaded " + file + ", " + (blockMap.cells.size() - appended) + " blocks placed, "
+                    + appended + " appended, " + layout.unresolved.size() + " unresolved by the generator");
+            if (appended * 2 > blockMap.cells.size()) {
+                BlockMapClientMod.LOGGER.warn("Ignoring " + file + ", most blocks are missing from it");
+                return null;
+            }
+            return blockMap;
+        } catch (IOException | RuntimeException e) {
+            BlockMapClientMod.LOGGER.error("Could not load the prebuilt block map " + file, e);
+            return null;
+        }
+    }
+
+    // latest preview of the given build, null once the build has been replaced
+    public static BlockMapBuilder.Snapshot getPreview(CompletableFuture<BlockMap> build) {
+        if (build == dominantBuild) {
+            return dominantPreview.get();
+        } else if (build == averageBuild) {
+            return averagePreview.get();
+        } else {
+            return null;
+        }
+    }
+
     public static List<BlockMapEntry> getEntries() {
         if (entries == null) {
             Set<Map.Entry<RegistryKey<Block>, Block>> blockRegistry = Registry.BLOCK.getEntries();
@@ -48,17 +236,15 @@ public class BlockMapManager {
                     entries.addLast(entry);
                 }
             }
+            modelSprites.clear();
+            spriteEntries.clear();
         }
 
         return entries;
     }
 
     public static List<BlockMapEntry> getBlockColor(Block block) {
-        BlockState state = block.getDefaultState();
         if (
-                state.getRenderType() != BlockRenderType.MODEL ||
-                state.hasSidedTransparency() ||
-                !state.isOpaque() ||
                 block instanceof CarpetBlock ||
                 block instanceof FenceBlock ||
                 block instanceof FenceGateBlock ||
@@ -73,39 +259,90 @@ public class BlockMapManager {
         ) {
             return List.of();
         }
-        BlockMapClientMod.LOGGER.info(block.toString());
+        // the default state goes first, see the directions below
+        List<BlockState> states = new ArrayList<>();
+        states.add(block.getDefaultState());
+        if (allStates) {
+            for (BlockState state : block.getStateManager().getStates()) {
+                if (state != block.getDefaultState()) {
+                    states.add(state);
+                }
+            }
+        }
 
         MinecraftClient client = MinecraftClient.getInstance();
         BakedModelManager modelManager = client.getBakedModelManager();
         HashMap<Sprite, Direction> sprites = new HashMap<>();
         ArrayList<BlockMapEntry> blockColors = new ArrayList<>();
 
-        for (Direction direction : Direction.values()) {
-            if (state.isSideInvisible(state, direction)) {
+        for (BlockState state : states) {
+            if (
+                    state.getRenderType() != BlockRenderType.MODEL ||
+                    state.hasSidedTransparency() ||
+                    !state.isOpaque()
+            ) {
                 continue;
             }
+
             BakedModel model = modelManager.getBlockModels().getModel(state);
-            List<BakedQuad> quads = model.getQuads(state, direction, client.world.getRandom());
-            if (quads.size() == 1) {
-                for (BakedQuad quad : quads) {
-                    Sprite sprite = quad.getSprite();
-                    if (sprite.getWidth() < 16 || sprite.getHeight() < 16) continue;
-                    if (sprites.containsKey(sprite)) {
-                        sprites.put(sprite, direction);
-                    } else {
-                        sprites.put(sprite, null);
-                    }
+            // multipart quads depend on the state, every other model can be shared by all of its states
+            Sprite[] faceSprites = model instanceof MultipartBakedModel
+                    ? getFaceSprites(model, state, client)
+                    : modelSprites.computeIfAbsent(model, m -> getFaceSprites(m, state, client));
+
+            for (Direction direction : Direction.values()) {
+                if (state.isSideInvisible(state, direction)) {
+                    continue;
+                }
+                Sprite sprite = faceSprites[direction.ordinal()];
+                if (sprite == null) continue;
+                if (state != block.getDefaultState()) {
+                    // other states may be rotated, so their faces say nothing about the direction of the sprite
+                    sprites.putIfAbsent(sprite, null);
+                } else if (sprites.containsKey(sprite)) {
+                    sprites.put(sprite, direction);
+                } else {
+                    sprites.put(sprite, null);
                 }
             }
         }
 
+        if (sprites.isEmpty()) {
+            return List.of();
+        }
+        BlockMapClientMod.LOGGER.info(block.toString());
+
         for (Map.Entry<Sprite, Direction> spriteDir : sprites.entrySet()) {
+            Direction direction = sprites.size() == 1 ? null : spriteDir.getValue();
+            if (spriteEntries.containsKey(spriteDir.getKey())) {
+                BlockMapEntry spriteEntry = spriteEntries.get(spriteDir.getKey());
+                if (spriteEntry != null) {
+                    blockColors.add(new BlockMapEntry(spriteEntry, block, direction));
+                }
+                continue;
+            }
             NativeImage image = ((SpriteAccessor) spriteDir.getKey()).getImages()[0];
+            BlockMapEntry spriteEntry = null;
             if (image.getFormat() == NativeImage.Format.RGBA) {
-                blockColors.add(new BlockMapEntry(block, image, sprites.size() == 1 ? null : spriteDir.getValue()));
+                spriteEntry = new BlockMapEntry(block, image, direction);
+                blockColors.add(spriteEntry);
             }
+            spriteEntries.put(spriteDir.getKey(), spriteEntry);
         }
 
         return blockColors;
     }
+
+    private static Sprite[] getFaceSprites(BakedModel model, BlockState state, MinecraftClient client) {
+        Sprite[] faceSprites = new Sprite[Direction.values().length];
+        for (Direction direction : Direction.values()) {
+            List<BakedQuad> quads = model.getQuads(state, direction, client.world.getRandom());
+            if (quads.size() == 1) {
+                Sprite sprite = quads.get(0).getSprite();
+                if (sprite.getWidth() < 16 || sprite.getHeight() < 16) continue;
+                faceSprites[direction.ordinal()] = sprite;
+            }
+        }
+        return faceSprites;
+    }
 }
@@ -0,0 +1,93 @@
+package io.github.orlouge.blockmap;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import net.minecraft.client.gl.VertexBuffer;
+import net.minecraft.client.render.BufferBuilder;
+import net.minecraft.client.render.GameRenderer;
+import net.minecraft.client.render.Tessellator;
+import net.minecraft.client.render.VertexFormat;
+import net.minecraft.client.render.VertexFormats;
+import net.minecraft.client.texture.NativeImage;
+import net.minecraft.client.texture.NativeImageBackedTexture;
+import net.minecraft.client.util.math.MatrixStack;
+import net.minecraft.util.math.Matrix4f;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// GPU copy of a block map: the textures of the cells packed once into an atlas, and one quad per cell in cell units
+// kept in a vertex buffer. Panning and zooming only change the model-view matrix handed to the shader, so an idle
+// frame is a single draw call with no work per cell.
+public class BlockMapRenderer implements AutoCloseable {
+    private static final int MAX_TILE_SIZE = 64;
+    private final NativeImageBackedTexture atlas;
+    private final VertexBuffer quads;
+
+    // must be created on the render thread
+    public BlockMapRenderer(BlockMap blockMap) {
+        Map<BlockMapEntry, Integer> tiles = new HashMap<>();
+        int tileSize = 1;
+        for (BlockMap.Cell cell : blockMap.cells) {
+            if (tiles.putIfAbsent(cell.entry, tiles.size()) == null) {
+                tileSize = Math.max(tileSize, cell.entry.getImage().getWidth());
+            }
+        }
+        int columns = Math.max(1, (int) Math.ceil(Math.sqrt(tiles.size())));
+        int rows = Math.max(1, (tiles.size() + columns - 1) / columns);
+        tileSize = Math.min(tileSize, MAX_TILE_SIZE);
+        while (tileSize > 1 && Math.max(columns, rows) * tileSize > RenderSystem.maxSupportedTextureSize()) {
+            tileSize /= 2;
+        }
+
+        // whole textures are scaled into their tile, as they are drawn on the map
+        NativeImage image = new NativeImage(columns * tileSize, rows * tileSize, true);
+        for (Map.Entry<BlockMapEntry, Integer> tile : tiles.entrySet()) {
+            NativeImage texture = tile.getKey().getImage();
+            int tileX = tile.getValue() % columns * tileSize, tileY = tile.getValue() / columns * tileSize;
+            for (int y = 0; y < tileSize; y++) {
+                for (int x = 0; x < tileSize; x++) {
+                    image.setColor(tileX + x, tileY + y, texture.getColor(
+                            x * texture.getWidth() / tileSize, y * texture.getHeight() / tileSize
+                    ));
+                }
+            }
+        }
+        this.atlas = new NativeImageBackedTexture(image);
+
+        // the shared buffer of the tessellator, a builder of our own would hold native memory until finalized
+        BufferBuilder buffer = Tessellator.getInstance().getBuffer();
+        buffer.begin(VertexFormat.DrawMode.QUADS, VertexFormats.POSITION_TEXTURE);
+        for (BlockMap.Cell cell : blockMap.cells) {
+            int tile = tiles.get(cell.entry);
+            float u0 = (float) (tile % columns) / columns, v0 = (float) (tile / columns) / rows;
+            float u1 = u0 + 1f / columns, v1 = v0 + 1f / rows;
+            buffer.vertex(cell.cellX, cell.cellY + 1, 0).texture(u0, v1).next();
+            buffer.vertex(cell.cellX + 1, cell.cellY + 1, 0).texture(u1, v1).next();
+            buffer.vertex(cell.cellX + 1, cell.cellY, 0).texture(u1, v0).next();
+            buffer.vertex(cell.cellX, cell.cellY, 0).texture(u0, v0).next();
+        }
+        buffer.end();
+        this.quads = new VertexBuffer();
+        this.quads.upload(buffer);
+    }
+
+    // offsets in screen pixels, the size of a cell being the scale
+    public void draw(MatrixStack matrices, double offsetX, double offsetY, float size) {
+        matrices.push();
+        matrices.translate(offsetX, offsetY, 0);
+        matrices.scale(size, size, 1);
+        Matrix4f modelView = RenderSystem.getModelViewMatrix().copy();
+        modelView.multiply(matrices.peek().getModel());
+        RenderSystem.setShaderColor(1.0F, 1.0F, 1.0F, 1.0F);
+        RenderSystem.enableBlend();
+        RenderSystem.setShaderTexture(0, this.atlas.getGlId());
+        this.quads.setShader(modelView, RenderSystem.getProjectionMatrix(), GameRenderer.getPositionTexShader());
+        matrices.pop();
+    }
+
+    @Override
+    public void close() {
+        this.atlas.close();
+        this.quads.close();
+    }
+}
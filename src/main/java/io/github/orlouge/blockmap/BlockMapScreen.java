@@ -1,44 +1,210 @@
 package io.github.orlouge.blockmap;
 
 import com.mojang.blaze3d.systems.RenderSystem;
+import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.gui.screen.Screen;
+import net.minecraft.client.gui.widget.ButtonWidget;
+import net.minecraft.client.gui.widget.TextFieldWidget;
 import net.minecraft.client.gui.tooltip.TooltipComponent;
 import net.minecraft.client.render.GameRenderer;
 import net.minecraft.client.texture.AbstractTexture;
 import net.minecraft.client.util.math.MatrixStack;
+import net.minecraft.entity.player.PlayerInventory;
 import net.minecraft.text.OrderedText;
 import net.minecraft.text.Style;
 import net.minecraft.text.Text;
+import net.minecraft.util.Util;
 import net.minecraft.util.math.Direction;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.registry.Registry;
+import org.lwjgl.glfw.GLFW;
 
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class BlockMapScreen extends Screen {
-    private final BlockMap averageBlockMap, dominantBlockMap;
-    private int offsetX = 0, offsetY = 0, previousOffsetX = 0, previousOffsetY = 0, size = 16, previousSize = -1;
+    private static final long ANIMATION_MS = 600;
+    private static final int[] GRADIENT_STEPS = {4, 6, 8, 12, 16, 24};
+    private final MapView averageView, dominantView;
+    // offsets are in (possibly fractional) screen pixels, they only move the map matrix on the GPU
+    private double offsetX = 0, offsetY = 0, previousOffsetX = 0, previousOffsetY = 0;
+    private int size = 16, previousSize = -1;
     private boolean resetSize = true, renderAverage = true;
+    private TextFieldWidget searchField;
+    private BlockMapSearchIndex.Result searchResult = null;
+    private ButtonWidget filterButton;
+    private BlockMapFilter filter = null;
+    // which entry of the filter list is shown, the list itself changes with the inventory and the loaded mods
+    private String filterId = "all";
+    private ButtonWidget stepsButton;
+    private int stepsIndex = 2;
+    private BlockMapEntry gradientStart = null, gradientEnd = null;
+    private int[] gradientCells = null;
+    private boolean[] inGradient = null;
+    private final Map<BlockMap, BlockMapRenderer> renderers = new HashMap<>();
 
-    public BlockMapScreen(BlockMap averageBlockMap, BlockMap dominantBlockMap) {
+    public BlockMapScreen(CompletableFuture<BlockMap> averageBlockMap, CompletableFuture<BlockMap> dominantBlockMap) {
         super(Text.of("BlockMap"));
-        this.averageBlockMap = averageBlockMap;
-        this.dominantBlockMap = dominantBlockMap;
+        this.averageView = new MapView(averageBlockMap);
+        this.dominantView = new MapView(dominantBlockMap);
+    }
+
+    @Override
+    protected void init() {
+        String query = this.searchField != null ? this.searchField.getText() : "";
+        this.searchField = new TextFieldWidget(this.textRenderer, 4, 4, 120, 16, Text.of("Search"));
+        this.searchField.setText(query);
+        this.searchField.setChangedListener(text -> this.updateSearch(true));
+        this.addSelectableChild(this.searchField);
+        this.filterButton = new ButtonWidget(128, 2, 100, 20, this.filterName(), button -> this.cycleFilter());
+        this.addSelectableChild(this.filterButton);
+        this.stepsButton = new ButtonWidget(232, 2, 70, 20, this.stepsName(), button -> this.cycleSteps());
+        this.addSelectableChild(this.stepsButton);
+        this.updateSearch(false);
+        this.updateGradient();
     }
 
     @Override
     public void render(MatrixStack matrices, int mouseX, int mouseY, float delta) {
         super.render(matrices, mouseX, mouseY, delta);
+        MapView view = this.currentView();
+        if (view.poll()) {
+            this.updateSearch(false);
+            this.updateGradient();
+        }
+        BlockMapBuilder.Snapshot preview = view.blockMap == null ? BlockMapManager.getPreview(view.build) : null;
+        BlockMap blockMap = this.displayedBlockMap();
         if (this.resetSize) {
-            this.setSize(Math.min(width, height) / Math.max(averageBlockMap.height, averageBlockMap.width));
-            this.resetSize = false;
+            if (blockMap != null) {
+                this.setSize(Math.min(width, height) / Math.max(1, Math.max(blockMap.height, blockMap.width)));
+                this.resetSize = false;
+            } else if (preview != null) {
+                this.setSize((int) (Math.min(width, height) / Math.max(1d, Math.max(preview.height, preview.width))));
+                this.resetSize = false;
+            }
         }
         this.renderBackground(matrices);
-        this.renderBlockMap(matrices, this.renderAverage ? averageBlockMap : dominantBlockMap, mouseX, mouseY);
+        if (blockMap != null) {
+            this.renderBlockMap(matrices, view, blockMap, mouseX, mouseY);
+        } else {
+            if (preview != null) {
+                this.renderPreview(matrices, preview);
+            }
+            Text status = view.build.isCompletedExceptionally()
+                    ? Text.of("Could not build the block map, see the log. Open it again to retry.")
+                    : Text.of("Building...");
+            drawCenteredText(matrices, this.textRenderer, status, width / 2, height - 16, 0xFFFFFF);
+        }
+        this.searchField.render(matrices, mouseX, mouseY, delta);
+        this.filterButton.render(matrices, mouseX, mouseY, delta);
+        this.stepsButton.render(matrices, mouseX, mouseY, delta);
+        if (blockMap != null && this.gradientStart != null && this.gradientEnd == null) {
+            drawCenteredText(matrices, this.textRenderer, Text.of("Right-click the last block of the gradient"), width / 2, height - 16, 0xFFFFFF);
+        }
+    }
+
+    private MapView currentView() {
+        return this.renderAverage ? averageView : dominantView;
+    }
+
+    private BlockMap displayedBlockMap() {
+        BlockMap blockMap = this.currentView().blockMap;
+        return blockMap == null || this.filter == null ? blockMap : blockMap.getSubMap(this.filter);
+    }
+
+    private Text filterName() {
+        return this.filter == null ? Text.of("All") : this.filter.name;
+    }
+
+    private void cycleFilter() {
+        BlockMap blockMap = this.currentView().blockMap;
+        if (blockMap == null) return;
+        Map<String, Supplier<BlockMapFilter>> filters = new LinkedHashMap<>();
+        filters.put("all", () -> null);
+        if (this.client.player != null) {
+            PlayerInventory inventory = this.client.player.getInventory();
+            filters.put("inventory", () -> BlockMapFilter.inventory(inventory));
+        }
+        filters.put("obtainable", BlockMapFilter::obtainable);
+        blockMap.cells.stream()
+                .flatMap(cell -> cell.entry.getBlocks().keySet().stream())
+                .map(block -> Registry.BLOCK.getId(block).getNamespace())
+                .distinct()
+                .sorted()
+                .forEach(namespace -> filters.put("namespace:" + namespace, () -> BlockMapFilter.namespace(namespace)));
+        // advances from the filter shown, back to all blocks when it is not available anymore
+        List<String> ids = new ArrayList<>(filters.keySet());
+        int index = ids.indexOf(this.filterId);
+        this.filterId = index < 0 ? "all" : ids.get((index + 1) % ids.size());
+        this.filter = filters.get(this.filterId).get();
+        this.filterButton.setMessage(this.filterName());
+        this.resetSize = true;
+        this.updateSearch(false);
+        this.updateGradient();
+    }
+
+    private Text stepsName() {
+        return Text.of("Steps: " + GRADIENT_STEPS[this.stepsIndex]);
+    }
+
+    private void cycleSteps() {
+        this.stepsIndex = (this.stepsIndex + 1) % GRADIENT_STEPS.length;
+        this.stepsButton.setMessage(this.stepsName());
+        this.updateGradient();
+    }
+
+    private void updateSearch(boolean pan) {
+        BlockMap blockMap = this.displayedBlockMap();
+        if (blockMap == null) {
+            this.searchResult = null;
+            return;
+        }
+        BlockMapSearchIndex.Result result = blockMap.getSearchIndex().search(this.searchField.getText());
+        this.searchResult = result.isEmpty() && this.searchField.getText().isBlank() ? null : result;
+        if (pan && !result.isEmpty()) {
+            BlockMap.Cell best = blockMap.cells.get(result.bestCell());
+            this.offsetX = width / 2d - (best.cellX + 0.5d) * size;
+            this.offsetY = height / 2d - (best.cellY + 0.5d) * size;
+        }
+    }
+
+    // the ends are kept as entries, so the gradient follows them across filters and views when they are shown
+    private void updateGradient() {
+        BlockMap blockMap = this.displayedBlockMap();
+        this.gradientCells = null;
+        this.inGradient = null;
+        if (blockMap == null || this.gradientStart == null || this.gradientEnd == null) {
+            return;
+        }
+        int from = -1, to = -1;
+        for (int i = 0; i < blockMap.cells.size(); i++) {
+            BlockMapEntry entry = blockMap.cells.get(i).entry;
+            if (entry == this.gradientStart) from = i;
+            if (entry == this.gradientEnd) to = i;
+        }
+        if (from < 0 || to < 0) {
+            return;
+        }
+        this.gradientCells = blockMap.gradient(from, to, GRADIENT_STEPS[this.stepsIndex]);
+        this.inGradient = new boolean[blockMap.cells.size()];
+        for (int cell : this.gradientCells) {
+            this.inGradient[cell] = true;
+        }
     }
 
     public void switchBlockMap() {
-        int prevX = previousOffsetX, prevY = previousOffsetY, prevSize = this.previousSize;
+        double prevX = previousOffsetX, prevY = previousOffsetY;
+        int prevSize = this.previousSize;
         this.previousOffsetX = offsetX;
         this.previousOffsetY = offsetY;
         this.offsetX = prevX;
@@ -47,33 +213,76 @@ public class BlockMapScreen extends Screen {
         this.size = prevSize;
         this.resetSize = this.resetSize || (prevSize == -1);
         this.renderAverage = !this.renderAverage;
+        if (this.searchField != null) {
+            this.updateSearch(false);
+            this.updateGradient();
+        }
     }
 
     private void setSize(int size) {
         this.size = Math.max(1, Math.min(128, size));
     }
 
-    private void renderBlockMap(MatrixStack matrices, BlockMap blockMap, int mouseX, int mouseY) {
+    private void renderPreview(MatrixStack matrices, BlockMapBuilder.Snapshot preview) {
         RenderSystem.setShaderColor(1.0F, 1.0F, 1.0F, 1.0F);
         RenderSystem.enableBlend();
         RenderSystem.setShader(GameRenderer::getPositionTexShader);
 
-        BlockMapEntry selectedEntry = null;
-        for (BlockMap.Cell cell : blockMap.cells) {
-            int gx = cell.cellX, gy = cell.cellY;
-            BlockMapEntry entry = cell.entry;
-            if (entry != null) {
-                int x = offsetX + gx * size, y = offsetY + gy * size;
-                if (x > -size && y > -size && x < width && y < height) {
-                    setShaderTexture(0, entry.getTexture());
-                    this.drawTexture(matrices, x, y, 0, 0, size, size, size, size);
-                    if (mouseX >= x && mouseY >= y && mouseX < x + size && mouseY < y + size) {
-                        selectedEntry = entry;
+        for (BlockMapBuilder.Placement placement : preview.placements) {
+            int x = MathHelper.floor(offsetX + placement.x * size), y = MathHelper.floor(offsetY + placement.y * size);
+            if (x > -size && y > -size && x < width && y < height) {
+                setShaderTexture(0, placement.entry.getTexture());
+                this.drawTexture(matrices, x, y, 0, 0, size, size, size, size);
+            }
+        }
+    }
+
+    private void renderBlockMap(MatrixStack matrices, MapView view, BlockMap blockMap, int mouseX, int mouseY) {
+        // only the full map animates in from the build preview
+        double progress = blockMap == view.blockMap ? view.animationProgress() : 1;
+        if (progress < 1) {
+            this.renderAnimation(matrices, view, blockMap, progress);
+        } else if (!blockMap.cells.isEmpty()) {
+            BlockMapRenderer renderer = this.renderers.get(blockMap);
+            if (renderer == null) {
+                // the map shown changed: renderers of the sub-maps shown before are freed, as their maps may be gone
+                // from the sub-map cache already, only the two full maps keep theirs
+                this.renderers.entrySet().removeIf(other -> {
+                    if (other.getKey() == averageView.blockMap || other.getKey() == dominantView.blockMap) return false;
+                    other.getValue().close();
+                    return true;
+                });
+                renderer = new BlockMapRenderer(blockMap);
+                this.renderers.put(blockMap, renderer);
+            }
+            renderer.draw(matrices, offsetX, offsetY, size);
+        }
+
+        if ((this.searchResult != null || this.inGradient != null) && progress >= 1) {
+            // cells in view only, found through the grid
+            int minX = Math.max(0, MathHelper.floor(-offsetX / size)), maxX = Math.min(blockMap.width - 1, MathHelper.floor((width - offsetX) / size));
+            int minY = Math.max(0, MathHelper.floor(-offsetY / size)), maxY = Math.min(blockMap.height - 1, MathHelper.floor((height - offsetY) / size));
+            matrices.push();
+            matrices.translate(offsetX, offsetY, 0);
+            for (int cellX = minX; cellX <= maxX; cellX++) {
+                for (int cellY = minY; cellY <= maxY; cellY++) {
+                    int i = blockMap.cellIndexAt(cellX, cellY);
+                    boolean dimmed = i >= 0 && ((this.searchResult != null && !this.searchResult.matches(i))
+                            || (this.inGradient != null && !this.inGradient[i]));
+                    if (dimmed) {
+                        fill(matrices, cellX * size, cellY * size, (cellX + 1) * size, (cellY + 1) * size, 0xC0000000);
                     }
                 }
             }
+            matrices.pop();
         }
 
+        if (this.gradientCells != null) {
+            this.renderGradient(matrices, blockMap);
+        }
+
+        int selected = blockMap.cellIndexAt(MathHelper.floor((mouseX - offsetX) / size), MathHelper.floor((mouseY - offsetY) / size));
+        BlockMapEntry selectedEntry = selected >= 0 ? blockMap.cells.get(selected).entry : null;
         if (selectedEntry != null) {
             List<OrderedText> text = selectedEntry.getBlocks().entrySet().stream()
                             .map(entry -> {
@@ -94,6 +303,41 @@ public class BlockMapScreen extends Screen {
         }
     }
 
+    // immediate mode, cells move from their preview positions until the animation is over
+    private void renderAnimation(MatrixStack matrices, MapView view, BlockMap blockMap, double progress) {
+        RenderSystem.setShaderColor(1.0F, 1.0F, 1.0F, 1.0F);
+        RenderSystem.enableBlend();
+        RenderSystem.setShader(GameRenderer::getPositionTexShader);
+
+        for (BlockMap.Cell cell : blockMap.cells) {
+            double gx = cell.cellX, gy = cell.cellY;
+            BlockMapBuilder.Placement from = view.animateFrom.get(cell.entry);
+            if (from != null) {
+                gx = MathHelper.lerp(progress, from.x, gx);
+                gy = MathHelper.lerp(progress, from.y, gy);
+            }
+            int x = MathHelper.floor(offsetX + gx * size), y = MathHelper.floor(offsetY + gy * size);
+            if (x > -size && y > -size && x < width && y < height) {
+                setShaderTexture(0, cell.entry.getTexture());
+                this.drawTexture(matrices, x, y, 0, 0, size, size, size, size);
+            }
+        }
+    }
+
+    // the steps of the gradient in order, along the bottom of the screen
+    private void renderGradient(MatrixStack matrices, BlockMap blockMap) {
+        int count = this.gradientCells.length;
+        int stripSize = Math.max(4, Math.min(32, (width - 8) / count));
+        int stripX = (width - stripSize * count) / 2, stripY = height - stripSize - 4;
+        fill(matrices, stripX - 2, stripY - 2, stripX + stripSize * count + 2, stripY + stripSize + 2, 0xC0000000);
+        RenderSystem.setShaderColor(1.0F, 1.0F, 1.0F, 1.0F);
+        RenderSystem.setShader(GameRenderer::getPositionTexShader);
+        for (int i = 0; i < count; i++) {
+            setShaderTexture(0, blockMap.cells.get(this.gradientCells[i]).entry.getTexture());
+            this.drawTexture(matrices, stripX + i * stripSize, stripY, 0, 0, stripSize, stripSize, stripSize, stripSize);
+        }
+    }
+
     private static void setShaderTexture(int i, AbstractTexture texture) {
         int[] shaderTextures = RenderSystem.shaderTextures;
         if (i >= 0 && i < shaderTextures.length) {
@@ -107,10 +351,35 @@ public class BlockMapScreen extends Screen {
         }
     }
 
+    // right clicks pick the two ends of a gradient, a right click outside of the map clears it
+    @Override
+    public boolean mouseClicked(double mouseX, double mouseY, int button) {
+        if (super.mouseClicked(mouseX, mouseY, button)) {
+            return true;
+        }
+        BlockMap blockMap = this.displayedBlockMap();
+        if (button != GLFW.GLFW_MOUSE_BUTTON_RIGHT || blockMap == null) {
+            return false;
+        }
+        int clickedIndex = blockMap.cellIndexAt(MathHelper.floor((mouseX - offsetX) / size), MathHelper.floor((mouseY - offsetY) / size));
+        BlockMapEntry clicked = clickedIndex >= 0 ? blockMap.cells.get(clickedIndex).entry : null;
+        if (clicked == null) {
+            this.gradientStart = null;
+            this.gradientEnd = null;
+        } else if (this.gradientStart == null || this.gradientEnd != null) {
+            this.gradientStart = clicked;
+            this.gradientEnd = null;
+        } else {
+            this.gradientEnd = clicked;
+        }
+        this.updateGradient();
+        return true;
+    }
+
     @Override
     public boolean mouseDragged(double mouseX, double mouseY, int button, double deltaX, double deltaY) {
-        offsetX += (int) deltaX;
-        offsetY += (int) deltaY;
+        offsetX += deltaX;
+        offsetY += deltaY;
         return true;
     }
 
@@ -125,18 +394,95 @@ public class BlockMapScreen extends Screen {
         } else {
             return true;
         }
-        offsetX = (offsetX - (int) mouseX) * this.size / oldSize + (int) mouseX;
-        offsetY = (offsetY - (int) mouseY) * this.size / oldSize + (int) mouseY;
+        // the point under the mouse stays in place
+        offsetX = (offsetX - mouseX) * this.size / oldSize + mouseX;
+        offsetY = (offsetY - mouseY) * this.size / oldSize + mouseY;
         return true;
     }
 
+    @Override
+    public boolean keyPressed(int keyCode, int scanCode, int modifiers) {
+        BlockMap blockMap = this.displayedBlockMap();
+        if (keyCode == GLFW.GLFW_KEY_E && hasControlDown() && blockMap != null) {
+            // nothing to export when no block passes the filter, a PNG cannot be empty
+            if (!blockMap.cells.isEmpty()) {
+                this.export(blockMap, hasShiftDown());
+            }
+            return true;
+        }
+        return super.keyPressed(keyCode, scanCode, modifiers);
+    }
+
+    private void export(BlockMap blockMap, boolean deepZoom) {
+        // the map is exported at the current zoom level
+        BlockMapExporter exporter = new BlockMapExporter(blockMap, this.size);
+        Path directory = this.client.runDirectory.toPath().resolve("blockmaps");
+        String name = "blockmap-" + new SimpleDateFormat("yyyy-MM-dd_HH.mm.ss").format(new Date());
+        CompletableFuture<Path> export = deepZoom
+                ? exporter.exportDeepZoom(directory, name)
+                : exporter.exportPng(directory.resolve(name + ".png"));
+        MinecraftClient client = this.client;
+        export.whenCompleteAsync((path, e) -> {
+            if (e != null) {
+                BlockMapClientMod.LOGGER.error("Could not export the block map", e);
+            } else {
+                BlockMapClientMod.LOGGER.info("Exported block map to " + path);
+                if (client.player != null) {
+                    client.player.sendMessage(Text.of("Exported block map to " + path.getFileName()), false);
+                }
+            }
+        }, client);
+    }
+
+    @Override
+    public void removed() {
+        this.renderers.values().forEach(BlockMapRenderer::close);
+        this.renderers.clear();
+        super.removed();
+    }
+
     @Override
     public boolean keyReleased(int keyCode, int scanCode, int modifiers) {
-        if (BlockMapClientMod.openBlockMapKeyBinding.matchesKey(keyCode, scanCode)) {
+        if (this.searchField.isFocused()) {
+            return super.keyReleased(keyCode, scanCode, modifiers);
+        } else if (BlockMapClientMod.openBlockMapKeyBinding.matchesKey(keyCode, scanCode)) {
             this.switchBlockMap();
             return true;
         } else {
             return false;
         }
     }
+
+    private static class MapView {
+        private final CompletableFuture<BlockMap> build;
+        private BlockMap blockMap = null;
+        private Map<BlockMapEntry, BlockMapBuilder.Placement> animateFrom = Map.of();
+        private long animationStart = 0;
+
+        private MapView(CompletableFuture<BlockMap> build) {
+            this.build = build;
+        }
+
+        private boolean poll() {
+            if (blockMap != null || !build.isDone() || build.isCompletedExceptionally()) {
+                return false;
+            }
+            blockMap = build.join();
+            // the preview of this very build, a newer build may have replaced it after a settings change
+            BlockMapBuilder.Snapshot preview = BlockMapManager.getPreview(build);
+            if (preview != null) {
+                animateFrom = new HashMap<>();
+                for (BlockMapBuilder.Placement placement : preview.placements) {
+                    animateFrom.put(placement.entry, placement);
+                }
+                animationStart = Util.getMeasuringTimeMs();
+            }
+            return true;
+        }
+
+        private double animationProgress() {
+            double t = Math.min(1d, (double) (Util.getMeasuringTimeMs() - animationStart) / ANIMATION_MS);
+            return t * t * (3d - 2d * t);
+        }
+    }
 }
@@ -0,0 +1,104 @@
+package io.github.orlouge.blockmap;
+
+import net.minecraft.block.Block;
+
+import java.util.*;
+
+public class BlockMapSearchIndex {
+    private final String[] keys;
+    private final int[] cellIndices;
+    private final int[][] cellKeys;
+
+    public BlockMapSearchIndex(List<BlockMap.Cell> cells) {
+        ArrayList<String> keyList = new ArrayList<>();
+        ArrayList<Integer> cellList = new ArrayList<>();
+
+        for (int i = 0; i < cells.size(); i++) {
+            for (Block block : cells.get(i).entry.getBlocks().keySet()) {
+                String name = block.getName().getString().toLowerCase(Locale.ROOT);
+                // every word start is a key, so that "log" also finds "Oak Log"
+                for (int start = 0; start < name.length(); start++) {
+                    if (start == 0 || (!Character.isLetterOrDigit(name.charAt(start - 1)) && Character.isLetterOrDigit(name.charAt(start)))) {
+                        keyList.add(name.substring(start));
+                        cellList.add(i);
+                    }
+                }
+            }
+        }
+
+        Integer[] order = new Integer[keyList.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.<Integer, String>comparing(keyList::get).thenComparing(cellList::get));
+
+        this.keys = new String[order.length];
+        this.cellIndices = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            this.keys[i] = keyList.get(order[i]);
+            this.cellIndices[i] = cellList.get(order[i]);
+        }
+
+        // positions of each cell's keys in the sorted array, to test a match without scanning the result range
+        int[] keyCounts = new int[cells.size()];
+        for (int cell : this.cellIndices) {
+            keyCounts[cell]++;
+        }
+        this.cellKeys = new int[cells.size()][];
+        for (int i = 0; i < cells.size(); i++) {
+            this.cellKeys[i] = new int[keyCounts[i]];
+            keyCounts[i] = 0;
+        }
+        for (int i = 0; i < this.cellIndices.length; i++) {
+            int cell = this.cellIndices[i];
+            this.cellKeys[cell][keyCounts[cell]++] = i;
+        }
+    }
+
+    public Result search(String query) {
+        String prefix = query.strip().toLowerCase(Locale.ROOT);
+        if (prefix.isEmpty()) {
+            return new Result(0, 0);
+        }
+        int from = lowerBound(prefix), to = lowerBound(prefix + Character.MAX_VALUE);
+        return new Result(from, to);
+    }
+
+    private int lowerBound(String key) {
+        int low = 0, high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public class Result {
+        public final int from, to;
+
+        private Result(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        public boolean isEmpty() {
+            return from >= to;
+        }
+
+        public int bestCell() {
+            // the lexicographically smallest key with the prefix is the closest match
+            return isEmpty() ? -1 : cellIndices[from];
+        }
+
+        public boolean matches(int cell) {
+            for (int key : cellKeys[cell]) {
+                if (key >= from && key < to) return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package io.github.orlouge.blockmap;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockMapExporterTest {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    // RGBA pixels row by row, written with the PNG writer and read back by ImageIO as ARGB
+    private static BufferedImage roundTrip(int width, int height, int[] rgba, int scanlineLength) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (BlockMapExporter.PngWriter png = new BlockMapExporter.PngWriter(out, width, height)) {
+            byte[] scanline = new byte[scanlineLength];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int color = rgba[x + y * width];
+                    for (int channel = 0; channel < 4; channel++) {
+                        scanline[1 + x * 4 + channel] = (byte) (color >>> (24 - channel * 8));
+                    }
+                }
+                png.writeScanline(scanline, width * 4 + 1);
+            }
+        }
+        checkChunks(out.toByteArray(), width, height);
+        return ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    // signature, then IHDR first with the given size as 8-bit RGBA, IEND last, and a valid CRC on every chunk
+    private static void checkChunks(byte[] png, int width, int height) throws IOException {
+        assertArrayEquals(SIGNATURE, Arrays.copyOf(png, SIGNATURE.length));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(png, SIGNATURE.length, png.length));
+        String type = null;
+        for (int chunk = 0; in.available() > 0; chunk++) {
+            byte[] data = new byte[in.readInt()];
+            byte[] typeBytes = new byte[4];
+            in.readFully(typeBytes);
+            in.readFully(data);
+            CRC32 crc = new CRC32();
+            crc.update(typeBytes);
+            crc.update(data);
+            assertEquals((int) crc.getValue(), in.readInt());
+            type = new String(typeBytes);
+            if (chunk == 0) {
+                assertEquals("IHDR", type);
+                DataInputStream header = new DataInputStream(new ByteArrayInputStream(data));
+                assertEquals(width, header.readInt());
+                assertEquals(height, header.readInt());
+                assertEquals(8, header.readByte());
+                assertEquals(6, header.readByte());
+            }
+        }
+        assertEquals("IEND", type);
+    }
+
+    private static void assertPixels(BufferedImage image, int width, int height, int[] rgba) {
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int color = rgba[x + y * width];
+                assertEquals((color << 24) | (color >>> 8), image.getRGB(x, y), x + "," + y);
+            }
+        }
+    }
+
+    @Test
+    void writesTheGivenPixels() throws IOException {
+        int[] rgba = {0xFF0000FF, 0x00FF00FF, 0x0000FFFF, 0x12345678, 0xFFFFFF00, 0x00000080};
+        assertPixels(roundTrip(3, 2, rgba, 3 * 4 + 1), 3, 2, rgba);
+    }
+
+    @Test
+    void writesOnlyTheGivenLengthOfLongerScanlines() throws IOException {
+        // the Deep Zoom tiles at the right edge reuse a full tile scanline
+        int[] rgba = {0x11223344, 0x55667788, 0x99AABBCC, 0xDDEEFF00};
+        assertPixels(roundTrip(2, 2, rgba, 256 * 4 + 1), 2, 2, rgba);
+    }
+
+    @Test
+    void splitsLargeImagesOverSeveralDataChunks() throws IOException {
+        // noise does not compress, so the deflated data is larger than the writer's buffer
+        int width = 300, height = 200;
+        int[] rgba = new int[width * height];
+        Random random = new Random(1);
+        for (int i = 0; i < rgba.length; i++) {
+            rgba[i] = random.nextInt();
+        }
+        assertPixels(roundTrip(width, height, rgba, width * 4 + 1), width, height, rgba);
+    }
+}
@@ -0,0 +1,106 @@
+package io.github.orlouge.blockmap;
+
+import net.minecraft.client.texture.NativeImage;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockMapGradientTest {
+    private static final int GREYS = 64;
+    private static BlockMap greyMap;
+    private static int black, white;
+
+    private static BlockMapEntry entry(int r, int g, int b) {
+        int color = NativeImage.packColor(255, b, g, r);
+        return new BlockMapEntry(16, 16, (x, y) -> color);
+    }
+
+    private static double lightness(BlockMap blockMap, int cell) {
+        return blockMap.cells.get(cell).entry.averageOklab().x;
+    }
+
+    @BeforeAll
+    static void buildGreyMap() {
+        List<BlockMapEntry> entries = new ArrayList<>();
+        for (int i = 0; i < GREYS; i++) {
+            int grey = i * 255 / (GREYS - 1);
+            entries.add(entry(grey, grey, grey));
+        }
+        greyMap = new BlockMap(entries, false, false);
+        for (int i = 0; i < greyMap.cells.size(); i++) {
+            if (lightness(greyMap, i) < lightness(greyMap, black)) black = i;
+            if (lightness(greyMap, i) > lightness(greyMap, white)) white = i;
+        }
+    }
+
+    private static void assertValidGradient(int[] gradient, int from, int to, int steps, BitSet hidden) {
+        assertEquals(steps, gradient.length);
+        assertEquals(from, gradient[0]);
+        assertEquals(to, gradient[gradient.length - 1]);
+        Set<Integer> distinct = new HashSet<>();
+        for (int cell : gradient) {
+            assertTrue(distinct.add(cell), "cell " + cell + " used twice");
+            assertFalse(hidden.get(cell) && cell != from && cell != to, "hidden cell " + cell + " picked");
+        }
+    }
+
+    @Test
+    void hasTheRequestedStepsBetweenTheTwoCells() {
+        for (int steps : new int[]{2, 4, 6, 8, 12, 16, 24}) {
+            assertValidGradient(greyMap.gradient(black, white, steps), black, white, steps, new BitSet());
+            assertValidGradient(greyMap.gradient(white, black, steps), white, black, steps, new BitSet());
+        }
+    }
+
+    @Test
+    void hasAtLeastTheTwoEnds() {
+        assertValidGradient(greyMap.gradient(black, white, 0), black, white, 2, new BitSet());
+        assertArrayEquals(new int[]{black}, greyMap.gradient(black, black, 8));
+    }
+
+    @Test
+    void followsTheColorsBetweenTheEnds() {
+        int[] gradient = greyMap.gradient(black, white, 16);
+        for (int i = 1; i < gradient.length; i++) {
+            assertTrue(lightness(greyMap, gradient[i]) > lightness(greyMap, gradient[i - 1]), "step " + i + " is not lighter");
+        }
+    }
+
+    @Test
+    void stopsAtTheCellsThereAre() {
+        int[] gradient = greyMap.gradient(black, white, GREYS * 2);
+        assertEquals(GREYS, gradient.length);
+        assertEquals(black, gradient[0]);
+        assertEquals(white, gradient[gradient.length - 1]);
+    }
+
+    @Test
+    void neverPicksHiddenCells() {
+        // few cells compare them all, many cells walk the graph: both are checked
+        for (int count : new int[]{500, 20000}) {
+            Random random = new Random(count);
+            List<BlockMap.Cell> cells = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                cells.add(greyMap.new Cell(entry(random.nextInt(256), random.nextInt(256), random.nextInt(256)), i, 0));
+            }
+            BlockMapGradient gradient = new BlockMapGradient(cells, false);
+            BitSet hidden = new BitSet(count);
+            for (int i = 0; i < count; i += 2) {
+                hidden.set(i);
+            }
+            for (int query = 0; query < 20; query++) {
+                int from = 1 + 2 * random.nextInt(count / 2), to = 1 + 2 * random.nextInt(count / 2);
+                if (from == to) continue;
+                assertValidGradient(gradient.gradient(from, to, 24, hidden), from, to, 24, hidden);
+            }
+        }
+    }
+}
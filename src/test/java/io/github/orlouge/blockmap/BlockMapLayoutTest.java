@@ -0,0 +1,77 @@
+package io.github.orlouge.blockmap;
+
+import net.minecraft.client.texture.NativeImage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockMapLayoutTest {
+    private static void assertSameLayout(BlockMapLayout expected, BlockMapLayout actual) {
+        assertEquals(expected.dominant, actual.dominant);
+        assertEquals(expected.perceptual, actual.perceptual);
+        assertEquals(expected.width, actual.width);
+        assertEquals(expected.height, actual.height);
+        assertEquals(expected.unresolved, actual.unresolved);
+        assertEquals(expected.cells.size(), actual.cells.size());
+        for (int i = 0; i < expected.cells.size(); i++) {
+            BlockMapLayout.Cell expectedCell = expected.cells.get(i), actualCell = actual.cells.get(i);
+            assertEquals(expectedCell.x, actualCell.x);
+            assertEquals(expectedCell.y, actualCell.y);
+            assertEquals(expectedCell.texture, actualCell.texture);
+            assertEquals(expectedCell.blocks, actualCell.blocks);
+        }
+    }
+
+    @Test
+    void roundTripsThroughAFile(@TempDir Path directory) throws IOException {
+        BlockMapLayout layout = new BlockMapLayout(true, false, 3, 2, List.of(
+                new BlockMapLayout.Cell(0, 0, "#7bf34c", List.of("minecraft:oak_log", "minecraft:stripped_oak_log")),
+                new BlockMapLayout.Cell(2, 0, "#0a0b0c", List.of("minecraft:stone")),
+                new BlockMapLayout.Cell(1, 1, "#ffffff", List.of("mymod:white_block"))
+        ), List.of("minecraft:furnace", "minecraft:smoker"));
+        Path file = directory.resolve("blockmaps").resolve(BlockMapLayout.fileName(true));
+        layout.write(file);
+
+        List<String> lines = Files.readAllLines(file);
+        assertEquals("blockmap-layout 2 dominant srgb", lines.get(0));
+        assertEquals("size 3 2", lines.get(1));
+        assertEquals("unresolved minecraft:furnace minecraft:smoker", lines.get(2));
+        assertEquals("0 0 #7bf34c minecraft:oak_log minecraft:stripped_oak_log", lines.get(3));
+        assertSameLayout(layout, BlockMapLayout.read(file));
+    }
+
+    @Test
+    void leavesOutTheUnresolvedLineWhenEveryBlockIsResolved(@TempDir Path directory) throws IOException {
+        BlockMapLayout layout = new BlockMapLayout(false, true, 1, 1, List.of(
+                new BlockMapLayout.Cell(0, 0, "#808080", List.of("minecraft:stone"))
+        ), List.of());
+        Path file = directory.resolve(BlockMapLayout.fileName(false));
+        layout.write(file);
+
+        assertTrue(Files.readAllLines(file).stream().noneMatch(line -> line.startsWith("unresolved")));
+        assertSameLayout(layout, BlockMapLayout.read(file));
+    }
+
+    @Test
+    void rejectsLayoutsOfAnotherVersion(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("layout-average.txt");
+        Files.writeString(file, "blockmap-layout 1 average srgb\nsize 1 1\n0 0 0 minecraft:stone\n");
+        assertThrows(IOException.class, () -> BlockMapLayout.read(file));
+    }
+
+    @Test
+    void textureKeyIsTheAverageColorAsHex() {
+        BlockMapEntry uniform = new BlockMapEntry(16, 16, (x, y) -> NativeImage.packColor(255, 0xff, 0xab, 0x12));
+        assertEquals("#12abff", BlockMapLayout.textureKey(uniform));
+
+        // half black and half white averages to 127.5, rounded up
+        BlockMapEntry halves = new BlockMapEntry(16, 16, (x, y) -> x < 8 ? 0xff000000 : 0xffffffff);
+        assertEquals("#808080", BlockMapLayout.textureKey(halves));
+    }
+}
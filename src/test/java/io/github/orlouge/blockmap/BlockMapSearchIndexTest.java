@@ -0,0 +1,88 @@
+package io.github.orlouge.blockmap;
+
+import net.minecraft.Bootstrap;
+import net.minecraft.SharedConstants;
+import net.minecraft.block.Block;
+import net.minecraft.block.Blocks;
+import net.minecraft.client.texture.NativeImage;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockMapSearchIndexTest {
+    private static final List<Block> BLOCKS = new ArrayList<>();
+    private static BlockMap blockMap;
+    private static BlockMapSearchIndex index;
+
+    // block names come from the vanilla language file, which needs the registries
+    @BeforeAll
+    static void buildIndex() {
+        SharedConstants.createGameVersion();
+        Bootstrap.initialize();
+        BLOCKS.addAll(List.of(Blocks.STONE, Blocks.OAK_LOG, Blocks.OAK_PLANKS, Blocks.BIRCH_LOG, Blocks.CRACKED_STONE_BRICKS));
+        List<BlockMapEntry> entries = new ArrayList<>();
+        for (int i = 0; i < BLOCKS.size(); i++) {
+            int color = NativeImage.packColor(255, 40 * i, 200 - 40 * i, 60 + 30 * i);
+            entries.add(new BlockMapEntry(new BlockMapEntry(16, 16, (x, y) -> color), BLOCKS.get(i), null));
+        }
+        blockMap = new BlockMap(entries, false, false);
+        index = new BlockMapSearchIndex(blockMap.cells);
+    }
+
+    private static int cellOf(Block block) {
+        for (int i = 0; i < blockMap.cells.size(); i++) {
+            if (blockMap.cells.get(i).entry.getBlocks().containsKey(block)) return i;
+        }
+        throw new IllegalArgumentException("no cell for " + block);
+    }
+
+    @Test
+    void matchesEveryWordStart() {
+        BlockMapSearchIndex.Result result = index.search("log");
+        assertTrue(result.matches(cellOf(Blocks.OAK_LOG)));
+        assertTrue(result.matches(cellOf(Blocks.BIRCH_LOG)));
+        assertFalse(result.matches(cellOf(Blocks.OAK_PLANKS)));
+        assertFalse(result.matches(cellOf(Blocks.STONE)));
+
+        result = index.search("bri");
+        assertTrue(result.matches(cellOf(Blocks.CRACKED_STONE_BRICKS)));
+        assertFalse(result.matches(cellOf(Blocks.STONE)));
+    }
+
+    @Test
+    void doesNotMatchInsideWords() {
+        assertTrue(index.search("ak").isEmpty());
+        assertTrue(index.search("one").isEmpty());
+    }
+
+    @Test
+    void bestCellHasTheSmallestMatchingKey() {
+        assertEquals(cellOf(Blocks.OAK_LOG), index.search("oak").bestCell());
+        assertEquals(cellOf(Blocks.STONE), index.search("stone").bestCell());
+        assertEquals(cellOf(Blocks.CRACKED_STONE_BRICKS), index.search("stone b").bestCell());
+    }
+
+    @Test
+    void ignoresCaseAndSurroundingSpaces() {
+        BlockMapSearchIndex.Result result = index.search("  OAK ");
+        BlockMapSearchIndex.Result expected = index.search("oak");
+        assertEquals(expected.from, result.from);
+        assertEquals(expected.to, result.to);
+    }
+
+    @Test
+    void emptyAndUnknownQueriesMatchNothing() {
+        for (String query : new String[]{"", "   ", "obsidian"}) {
+            BlockMapSearchIndex.Result result = index.search(query);
+            assertTrue(result.isEmpty(), query);
+            assertEquals(-1, result.bestCell());
+            for (int cell = 0; cell < blockMap.cells.size(); cell++) {
+                assertFalse(result.matches(cell));
+            }
+        }
+    }
+}